@@ -0,0 +1,120 @@
+package com.cuby.lcdui;
+
+import javax.microedition.lcdui.Command;
+import javax.microedition.lcdui.Display;
+
+/**
+ * Gives the cuby container access to the implementation of displays,
+ * to deliver the input events of the platform and those replayed from
+ * an input log. Events are queued and delivered by the event thread
+ * of the display, in the order they were queued. The single
+ * implementation lives in <code>javax.microedition.lcdui</code> and
+ * registers itself when the <code>Display</code> class is initialized.
+ */
+public abstract class DisplayAccess {
+
+    /** A key went down */
+    public static final int KEY_PRESSED = 1;
+
+    /** A key went up */
+    public static final int KEY_RELEASED = 2;
+
+    /** A key is held down and repeats */
+    public static final int KEY_REPEATED = 3;
+
+    /** The pointer went down */
+    public static final int POINTER_PRESSED = 4;
+
+    /** The pointer went up */
+    public static final int POINTER_RELEASED = 5;
+
+    /** The pointer moved while down */
+    public static final int POINTER_DRAGGED = 6;
+
+    /**
+     * Returns the registered implementation.
+     *
+     * @return the implementation of <code>DisplayAccess</code>
+     */
+    public static DisplayAccess getInstance() {
+        if (instance == null) {
+            try {
+                // the implementation registers itself from Display
+                Class.forName("javax.microedition.lcdui.Display");
+            } catch (ClassNotFoundException e) {
+                throw new Error(e.toString());
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Registers the implementation. Only the first registration
+     * takes effect.
+     *
+     * @param access the implementation of <code>DisplayAccess</code>
+     */
+    public static synchronized void register(DisplayAccess access) {
+        if (instance == null) {
+            instance = access;
+        }
+    }
+
+    /**
+     * Queues a key event for the current <code>Displayable</code> of
+     * a display. The key states of a game canvas are updated at once;
+     * only the delivery to its key event methods is queued. Queuing key
+     * and pointer events allocates nothing.
+     *
+     * @param display the display that has the input focus
+     * @param type one of <code>KEY_PRESSED</code>,
+     * <code>KEY_RELEASED</code> or <code>KEY_REPEATED</code>
+     * @param keyCode the MIDP key code of the key
+     */
+    public abstract void keyEvent(Display display, int type, int keyCode);
+
+    /**
+     * Queues a pointer event for the current <code>Displayable</code>
+     * of a display.
+     *
+     * @param display the display that has the input focus
+     * @param type one of <code>POINTER_PRESSED</code>,
+     * <code>POINTER_RELEASED</code> or <code>POINTER_DRAGGED</code>
+     * @param x the horizontal location of the pointer on the display
+     * @param y the vertical location of the pointer on the display
+     */
+    public abstract void pointerEvent(Display display, int type,
+                                      int x, int y);
+
+    /**
+     * Queues the invocation of a command of the current
+     * <code>Displayable</code> of a display, as if the user had
+     * selected it.
+     *
+     * @param display the display that has the input focus
+     * @param command the command, one of those added to the current
+     * <code>Displayable</code>
+     */
+    public abstract void commandAction(Display display, Command command);
+
+    /**
+     * Returns the commands added to the current <code>Displayable</code>
+     * of a display, in the order they were added.
+     *
+     * @param display the display
+     * @return the commands, an empty array if there is no current
+     * <code>Displayable</code>
+     */
+    public abstract Command[] getCommands(Display display);
+
+    /**
+     * Waits until the events queued for a display so far have been
+     * delivered. Returns at once when called from the event thread of
+     * the display.
+     *
+     * @param display the display
+     */
+    public abstract void waitForEvents(Display display);
+
+    private static DisplayAccess instance; // = null;
+}
@@ -0,0 +1,239 @@
+package com.cuby.lcdui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.MotionEvent;
+import android.view.View;
+
+import javax.microedition.lcdui.Display;
+import javax.microedition.lcdui.Image;
+import javax.microedition.midlet.MIDlet;
+import javax.microedition.midlet.MIDletContainer;
+
+/**
+ * The view showing the MIDlet on the Android display. Frames are
+ * presented to it from the MIDlet threads and drawn by the UI thread.
+ *
+ * <p>The view keeps two frame stores. A frame is presented by bringing
+ * the store not on display up to date and swapping the stores, so the
+ * UI thread always draws a complete frame without holding up the
+ * MIDlet. Only the presented region is copied, together with the
+ * region presented the time before, which the other store is missing.
+ * A MIDlet presenting faster than the display is drawn only waits for
+ * the UI thread to finish drawing the frame before last.</p>
+ *
+ * <p>The stores take the size of the view, or of the first frame
+ * presented while the view is not laid out yet. Frames of another
+ * size, such as the buffer of a game canvas created before the layout,
+ * are presented clipped to the stores rather than have them
+ * reallocated.</p>
+ *
+ * <p>Touches on the view are delivered to the MIDlet as pointer
+ * events, located relative to the frames.</p>
+ */
+public class DisplayView extends View {
+
+    /**
+     * Creates the view and makes it the one frames are presented to.
+     *
+     * @param context the activity showing the view
+     */
+    public DisplayView(Context context) {
+        super(context);
+        instance = this;
+    }
+
+    /**
+     * Returns the view frames are presented to.
+     *
+     * @return the view, or <code>null</code> if none was created yet
+     */
+    public static DisplayView getInstance() {
+        return instance;
+    }
+
+    /**
+     * Presents a region of a frame. The pixels of the region are
+     * copied before this method returns, the frame may be drawn over
+     * right away. The rest of the frame shown is left as it was.
+     *
+     * @param frame the image holding the frame, its origin at the origin
+     * of the view
+     * @param x the left edge of the region
+     * @param y the top edge of the region
+     * @param width the width of the region
+     * @param height the height of the region
+     */
+    public void present(Image frame, int x, int y, int width, int height) {
+        synchronized (this) {
+            int w = getWidth();
+            int h = getHeight();
+            if (w <= 0 || h <= 0) {
+                // not laid out yet, the stores keep the size they have
+                w = stores[0] != null ? frameWidth : frame.getWidth();
+                h = stores[0] != null ? frameHeight : frame.getHeight();
+            }
+            int fw = Math.min(frame.getWidth(), w);
+            int fh = Math.min(frame.getHeight(), h);
+
+            if (stores[0] == null || w != frameWidth || h != frameHeight) {
+                // a new view size, both stores start out complete
+                stores[0] = null;
+                stores[1] = null;
+                ImageMemory.getCurrent().makeRoom((w * h) << 3);
+                stores[0] = new int[w * h];
+                stores[1] = new int[w * h];
+                ImageMemory.getCurrent().track(stores[0], (w * h) << 2);
+                ImageMemory.getCurrent().track(stores[1], (w * h) << 2);
+                frame.getRGB(stores[0], 0, w, 0, 0, fw, fh);
+                frame.getRGB(stores[1], 0, w, 0, 0, fw, fh);
+                frameWidth = w;
+                frameHeight = h;
+                front = 0;
+                staleWidth = 0;
+                postInvalidate();
+                return;
+            }
+
+            // only the part of the region within both the frame and
+            // the stores is taken
+            width = Math.min(x + width, fw) - x;
+            height = Math.min(y + height, fh) - y;
+            if (width <= 0 || height <= 0) {
+                return;
+            }
+
+            int back = 1 - front;
+            while (drawing == back) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // the frame is dropped
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            // catch up with the region presented last time, then
+            // take the new one
+            if (staleWidth > 0) {
+                int offset = staleY * w + staleX;
+                for (int row = 0; row < staleHeight; row++, offset += w) {
+                    System.arraycopy(stores[front], offset,
+                                     stores[back], offset, staleWidth);
+                }
+            }
+            frame.getRGB(stores[back], y * w + x, w, x, y, width, height);
+
+            front = back;
+            staleX = x;
+            staleY = y;
+            staleWidth = width;
+            staleHeight = height;
+        }
+        postInvalidate(x, y, x + width, y + height);
+    }
+
+    /**
+     * Draws the region of the frame on display that needs drawing.
+     *
+     * @param canvas the canvas to draw the view with
+     */
+    protected void onDraw(Canvas canvas) {
+        int[] pixels;
+        int w, h;
+        synchronized (this) {
+            if (stores[0] == null) {
+                return;
+            }
+            drawing = front;
+            pixels = stores[front];
+            // the size goes with the store, a frame presented meanwhile
+            // may bring new ones
+            w = frameWidth;
+            h = frameHeight;
+        }
+
+        try {
+            Rect clip = this.clip;
+            canvas.getClipBounds(clip);
+            int left = Math.max(clip.left, 0);
+            int top = Math.max(clip.top, 0);
+            int right = Math.min(clip.right, w);
+            int bottom = Math.min(clip.bottom, h);
+            if (left < right && top < bottom) {
+                canvas.drawBitmap(pixels, top * w + left, w, left, top,
+                                  right - left, bottom - top, false, null);
+            }
+        } finally {
+            synchronized (this) {
+                drawing = -1;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Delivers a touch to the current <code>Displayable</code> as a
+     * pointer event. The location is taken relative to this view, whose
+     * origin is the origin of the frames presented to it. Touches are
+     * ignored while a replay is active.
+     *
+     * @param event the touch
+     * @return <code>true</code> if the touch was taken
+     */
+    public boolean onTouchEvent(MotionEvent event) {
+        int type;
+        switch (event.getAction()) {
+        case MotionEvent.ACTION_DOWN:
+            type = DisplayAccess.POINTER_PRESSED;
+            break;
+        case MotionEvent.ACTION_UP:
+        case MotionEvent.ACTION_CANCEL:
+            type = DisplayAccess.POINTER_RELEASED;
+            break;
+        case MotionEvent.ACTION_MOVE:
+            type = DisplayAccess.POINTER_DRAGGED;
+            break;
+        default:
+            return super.onTouchEvent(event);
+        }
+
+        MIDletContainer container =
+            MIDletContainer.getMIDletContainerInstance();
+        MIDlet midlet = (container != null) ? container.getMIDlet() : null;
+        if (midlet != null && InputReplayer.getActive() == null) {
+            DisplayAccess.getInstance().pointerEvent(
+                    Display.getDisplay(midlet), type,
+                    (int)event.getX(), (int)event.getY());
+        }
+        return true;
+    }
+
+    // private implementation //
+
+    /** the view frames are presented to */
+    private static DisplayView instance; // = null;
+
+    /** the two frame stores */
+    private final int[][] stores = new int[2][];
+
+    /** size of the stores */
+    private int frameWidth, frameHeight; // = 0;
+
+    /** index of the store on display */
+    private int front; // = 0;
+
+    /** index of the store the UI thread is drawing, -1 if none */
+    private int drawing = -1;
+
+    /**
+     * The region presented last, which the store not on display
+     * is missing
+     */
+    private int staleX, staleY, staleWidth, staleHeight; // = 0;
+
+    /** clip bounds of the canvas drawn, only used by the UI thread */
+    private final Rect clip = new Rect();
+}
@@ -0,0 +1,82 @@
+package com.cuby.lcdui;
+
+import java.nio.ByteBuffer;
+
+import javax.microedition.lcdui.Canvas;
+import javax.microedition.lcdui.game.TiledLayer;
+
+/**
+ * Gives <code>javax.microedition.lcdui</code> access to the
+ * implementation of game canvases. The single implementation lives in
+ * <code>javax.microedition.lcdui.game</code> and registers itself when
+ * the <code>GameCanvas</code> or <code>TiledLayer</code> class is
+ * initialized; until then there is no game canvas or layer to reach.
+ */
+public abstract class GameAccess {
+
+    /**
+     * Returns the registered implementation.
+     *
+     * @return the implementation of <code>GameAccess</code>, or
+     * <code>null</code> if no <code>GameCanvas</code> was created yet
+     */
+    public static GameAccess getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registers the implementation. Only the first registration
+     * takes effect.
+     *
+     * @param access the implementation of <code>GameAccess</code>
+     */
+    public static synchronized void register(GameAccess access) {
+        if (instance == null) {
+            instance = access;
+        }
+    }
+
+    /**
+     * Records a game key event in the key states of a canvas, if it is
+     * a game canvas. Called as the event is posted.
+     *
+     * @param canvas the canvas the event is posted to
+     * @param type one of <code>DisplayAccess.KEY_PRESSED</code>,
+     * <code>KEY_RELEASED</code> or <code>KEY_REPEATED</code>
+     * @param gameAction the game action of the key, not <code>0</code>
+     */
+    public abstract void latchGameKey(Canvas canvas, int type,
+                                      int gameAction);
+
+    /**
+     * Tells whether a canvas, if it is a game canvas, keeps game key
+     * events from its key event methods.
+     *
+     * @param canvas the canvas the event is delivered to
+     * @return <code>true</code> if game key events are not to be
+     * delivered to the key event methods of the canvas
+     */
+    public abstract boolean suppressesKeyEvents(Canvas canvas);
+
+    /**
+     * Tells a canvas, if it is a game canvas, that it became shown or
+     * hidden.
+     *
+     * @param canvas the canvas
+     * @param shown <code>true</code> if the canvas became current
+     */
+    public abstract void visibilityChanged(Canvas canvas, boolean shown);
+
+    /**
+     * Takes the contents of all cells of a layer from a buffer.
+     *
+     * @param layer the layer
+     * @param cells the buffer holding the cells
+     * @param cellSize the size of a cell in the buffer, in bytes
+     * @see TileMaps#mapCells
+     */
+    public abstract void mapCells(TiledLayer layer, ByteBuffer cells,
+                                  int cellSize);
+
+    private static volatile GameAccess instance; // = null;
+}
@@ -0,0 +1,163 @@
+package com.cuby.lcdui;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+/**
+ * Gives cuby classes outside of <code>javax.microedition.lcdui</code>
+ * access to the implementation of images and graphics. The single
+ * implementation lives in <code>javax.microedition.lcdui</code> and
+ * registers itself when the <code>Image</code> class is initialized.
+ */
+public abstract class GraphicsAccess {
+
+    /**
+     * Returns the registered implementation.
+     *
+     * @return the implementation of <code>GraphicsAccess</code>
+     */
+    public static GraphicsAccess getInstance() {
+        if (instance == null) {
+            try {
+                // the implementation registers itself from Image
+                Class.forName("javax.microedition.lcdui.Image");
+            } catch (ClassNotFoundException e) {
+                throw new Error(e.toString());
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Registers the implementation. Only the first registration
+     * takes effect.
+     *
+     * @param access the implementation of <code>GraphicsAccess</code>
+     */
+    public static synchronized void register(GraphicsAccess access) {
+        if (instance == null) {
+            instance = access;
+        }
+    }
+
+    /**
+     * Creates an immutable image using the given array as its pixel
+     * store, without copying it.
+     *
+     * @param rgb the ARGB pixels, handed over to the image
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param processAlpha <code>false</code> if the alpha values in
+     * <code>rgb</code> are to be ignored
+     * @return the new image
+     */
+    public abstract Image createRGBImage(int[] rgb, int width, int height,
+                                         boolean processAlpha);
+
+    /**
+     * Decodes an image file, scaled down while decoding if it is a
+     * JPEG file at least twice as large as the target.
+     *
+     * @param data the array holding the image file
+     * @param offset the offset of the file in the array
+     * @param length the length of the file
+     * @param targetWidth the width the image is going to be shown at
+     * @param targetHeight the height the image is going to be shown at
+     * @return the decoded, immutable image
+     */
+    public abstract Image decodeImage(byte[] data, int offset, int length,
+                                      int targetWidth, int targetHeight);
+
+    /**
+     * Replaces the small immutable images of an array with images
+     * sharing atlas pages.
+     *
+     * @param images the images to pack
+     * @return the number of images replaced
+     */
+    public abstract int packImages(Image[] images);
+
+    /**
+     * Tells whether every pixel of an image is fully opaque. Mutable
+     * images are always opaque.
+     *
+     * @param image the image
+     * @return <code>true</code> if the image has no transparent or
+     * translucent pixels
+     */
+    public abstract boolean isOpaque(Image image);
+
+    /**
+     * Tells an image created by <code>createRGBImage</code> that its
+     * owner rewrote the array handed over to it. The opacity of the
+     * image is classified again and its transformed regions dropped.
+     *
+     * @param image the image whose pixels changed
+     */
+    public abstract void pixelsChanged(Image image);
+
+    /**
+     * Sets the opacity of an image created by <code>createRGBImage</code>
+     * without looking at its pixels, for owners that know it better.
+     * An image declared not opaque is drawn with full alpha blending.
+     *
+     * @param image the image
+     * @param opaque <code>true</code> if every pixel of the image is
+     * fully opaque
+     */
+    public abstract void setOpaque(Image image, boolean opaque);
+
+    /**
+     * Brings a <code>Graphics</code> object back to the state of a new
+     * one: no translation, a clip covering its whole destination, black,
+     * the default font and the solid stroke style.
+     *
+     * @param g the graphics object to reset
+     */
+    public abstract void resetGraphics(Graphics g);
+
+    /**
+     * Renders a batch of regions of one image with one transform, each
+     * region given by six elements of <code>regions</code>: its location
+     * and size in <code>src</code>, then the top-left corner of the
+     * transformed region in the destination.
+     *
+     * @param g the graphics object to render with
+     * @param src the source image
+     * @param transform the transform to apply to every region
+     * @param regions the regions, six elements each
+     * @param count the number of regions
+     */
+    public abstract void drawRegions(Graphics g, Image src, int transform,
+                                     int[] regions, int count);
+
+    /**
+     * Returns the immutable image holding a region of an image with a
+     * transform applied. The region is materialized on first use and
+     * kept until image memory runs short, so that later requests for
+     * it cost a lookup.
+     *
+     * @param image the source image
+     * @param x the horizontal location of the region
+     * @param y the vertical location of the region
+     * @param w the width of the region
+     * @param h the height of the region
+     * @param transform the transform to apply
+     * @return the transformed region, <code>null</code> if
+     * <code>image</code> is mutable
+     */
+    public abstract Image getTransformedRegion(Image image, int x, int y,
+                                               int w, int h, int transform);
+
+    /**
+     * Returns a count that changes whenever the transformed regions of
+     * an image are dropped, so that holders of a region can tell it is
+     * no longer the one kept for the image without looking it up.
+     *
+     * @param image the source image
+     * @return the generation of the transformed regions of the image
+     */
+    public abstract int getRegionGeneration(Image image);
+
+    private static GraphicsAccess instance; // = null;
+}
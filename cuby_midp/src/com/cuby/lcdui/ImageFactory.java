@@ -0,0 +1,118 @@
+package com.cuby.lcdui;
+
+import javax.microedition.lcdui.Image;
+
+/**
+ * Vendor extensions for creating images.
+ */
+public final class ImageFactory {
+
+    private ImageFactory() {
+    }
+
+    /**
+     * Creates an immutable image from a sequence of ARGB values like
+     * <code>Image.createRGBImage</code>, but hands the array over to the
+     * image instead of copying it. The caller must not modify
+     * <code>rgb</code> afterwards. When <code>processAlpha</code> is
+     * <code>false</code> the alpha bytes of <code>rgb</code> are
+     * overwritten in place.
+     *
+     * @param rgb an array of ARGB values that composes the image,
+     * laid out as for <code>Image.createRGBImage</code>
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param processAlpha <code>true</code> if <code>rgb</code>
+     * has an alpha channel,
+     * <code>false</code> if all pixels are fully opaque
+     * @return the created image
+     * @throws NullPointerException if <code>rgb</code> is <code>null</code>
+     * @throws IllegalArgumentException if either <code>width</code> or
+     * <code>height</code> is zero or less
+     * @throws ArrayIndexOutOfBoundsException if the length of
+     * <code>rgb</code> is less than <code>width&nbsp;*&nbsp;height</code>
+     */
+    public static Image createRGBImage(int[] rgb, int width, int height,
+                                       boolean processAlpha) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        if ((width * height) > rgb.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        return GraphicsAccess.getInstance().createRGBImage(rgb, width, height,
+                                                           processAlpha);
+    }
+
+    /**
+     * Creates an immutable image from an image file like
+     * <code>Image.createImage(byte[], int, int)</code>, but scales a
+     * JPEG file down while decoding it when it is larger than needed.
+     * The file is scaled by the largest of 1/2, 1/4 or 1/8 that keeps
+     * the image at least as large as the target, in either orientation,
+     * which costs a fraction of a full decode. Other files, and JPEG
+     * files the decoder cannot scale, are decoded at full size.
+     *
+     * <p>The image returned may thus be smaller than the picture the
+     * file holds; its size is given by its <code>getWidth</code> and
+     * <code>getHeight</code> methods, not by the file.</p>
+     *
+     * @param imageData the array of image data in a supported image
+     * format
+     * @param imageOffset the offset of the start of the data in the array
+     * @param imageLength the length of the data in the array
+     * @param targetWidth the width the image is going to be shown at
+     * @param targetHeight the height the image is going to be shown at
+     * @return the created image
+     * @throws ArrayIndexOutOfBoundsException if <code>imageOffset</code>
+     * and <code>imageLength</code> specify an invalid range
+     * @throws NullPointerException if <code>imageData</code> is
+     * <code>null</code>
+     * @throws IllegalArgumentException if <code>targetWidth</code> or
+     * <code>targetHeight</code> is zero or less
+     * @throws IllegalArgumentException if <code>imageData</code> is
+     * incorrectly formatted or otherwise cannot be decoded
+     */
+    public static Image createScaledImage(byte[] imageData, int imageOffset,
+                                          int imageLength, int targetWidth,
+                                          int targetHeight) {
+        if (imageOffset < 0 || imageOffset >= imageData.length
+            || imageLength < 0
+            || imageOffset + imageLength > imageData.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        return GraphicsAccess.getInstance().decodeImage(imageData,
+                                                        imageOffset,
+                                                        imageLength,
+                                                        targetWidth,
+                                                        targetHeight);
+    }
+
+    /**
+     * Packs small immutable images into shared atlas pages. Every
+     * immutable image of at most 64 by 64 pixels in <code>images</code>
+     * is replaced by an image with the same content whose pixels are
+     * stored in a page shared with the other packed images, so that
+     * screens drawing many icons read from a few contiguous stores
+     * instead of one per icon. Pages hold up to 256 by 256 pixels.
+     *
+     * <p>Mutable images, sub-region images, larger images and
+     * <code>null</code> elements are left in place. The replaced images
+     * remain valid and are freed once the application drops them. Images
+     * are best packed all at once, right after they are loaded.</p>
+     *
+     * @param images the images to pack, replaced in place
+     * @return the number of images replaced
+     * @throws NullPointerException if <code>images</code> is
+     * <code>null</code>
+     */
+    public static int packImages(Image[] images) {
+        return GraphicsAccess.getInstance().packImages(images);
+    }
+}
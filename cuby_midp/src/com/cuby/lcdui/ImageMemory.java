@@ -0,0 +1,346 @@
+package com.cuby.lcdui;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import javax.microedition.midlet.MIDlet;
+import javax.microedition.midlet.MIDletContainer;
+
+/**
+ * Accounts the memory held by image pixel stores to the MIDlet that
+ * created them, and keeps it within an optional budget by evicting
+ * derived caches, such as transformed image regions, when the budget
+ * would be exceeded.
+ *
+ * <p>Images created before the container has constructed the MIDlet,
+ * for instance by its constructor or by the image preloader, are
+ * accounted to the MIDlet started next.</p>
+ *
+ * <p>The budget, in bytes, is taken from the <code>Cuby-Image-Budget</code>
+ * attribute of the MIDlet and can be changed with
+ * {@link #setBudget}. A budget of zero means no limit.</p>
+ *
+ * <p>Caches are evicted by a thread of the ledgers' own, not by the
+ * thread allocating a store: that thread may hold the lock of a cache,
+ * or of an image a cache locks to drop its regions, and evicting on it
+ * could re-enter the cache half way through an update or wait on a
+ * lock held by a thread waiting for one of its own. The total may
+ * thus run over the budget for as long as the eviction takes.</p>
+ */
+public final class ImageMemory {
+
+    /**
+     * Application property holding the budget in bytes
+     */
+    public static final String BUDGET_PROPERTY = "Cuby-Image-Budget";
+
+    /**
+     * A cache of derived images that can be dropped under memory
+     * pressure and rebuilt on demand.
+     */
+    public interface Cache {
+        /**
+         * Drops the cached images. Called by a thread holding no lock
+         * of the code allocating image stores, which may wait for the
+         * lock of the cache.
+         *
+         * @return the number of bytes of pixel stores no longer
+         * referenced by the cache
+         */
+        int evict();
+    }
+
+    /**
+     * Returns the ledger of the given MIDlet.
+     *
+     * @param midlet the MIDlet
+     * @return the ledger the images of <code>midlet</code> are
+     * accounted to
+     */
+    public static synchronized ImageMemory getInstance(MIDlet midlet) {
+        ImageMemory ledger = (ImageMemory)ledgers.get(midlet);
+        if (ledger == null) {
+            if (unowned != null) {
+                ledger = unowned;
+                unowned = null;
+            } else {
+                ledger = new ImageMemory();
+            }
+
+            String budget = midlet.getAppProperty(BUDGET_PROPERTY);
+            if (budget != null) {
+                try {
+                    ledger.budget = Integer.parseInt(budget.trim());
+                } catch (NumberFormatException e) {
+                    // keep the default of no limit
+                }
+            }
+            ledgers.put(midlet, ledger);
+        }
+        return ledger;
+    }
+
+    /**
+     * Returns the ledger of the running MIDlet, or the ledger of the
+     * MIDlet to be started if there is none yet.
+     *
+     * @return the ledger new images are accounted to
+     */
+    public static synchronized ImageMemory getCurrent() {
+        MIDletContainer container =
+            MIDletContainer.getMIDletContainerInstance();
+        MIDlet midlet = (container != null) ? container.getMIDlet() : null;
+        if (midlet != null) {
+            return getInstance(midlet);
+        }
+
+        if (unowned == null) {
+            unowned = new ImageMemory();
+        }
+        return unowned;
+    }
+
+    /**
+     * Registers a cache to be evicted under memory pressure. The cache
+     * is only weakly referenced.
+     *
+     * @param cache the cache
+     */
+    public static void register(Cache cache) {
+        caches.addElement(new WeakReference(cache));
+    }
+
+    /**
+     * Evicts every registered cache, for instance when the MIDlet is
+     * sent to the background.
+     */
+    public static void evictCaches() {
+        evictCaches(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of bytes held by live image stores.
+     *
+     * @return the current total
+     */
+    public synchronized int getCurrentBytes() {
+        poll();
+        return current;
+    }
+
+    /**
+     * Returns the largest number of bytes held by live image stores
+     * at any one time.
+     *
+     * @return the peak total
+     */
+    public synchronized int getPeakBytes() {
+        poll();
+        return peak;
+    }
+
+    /**
+     * Returns the budget.
+     *
+     * @return the budget in bytes, zero if there is no limit
+     */
+    public synchronized int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the budget. Caches are evicted right away if the current
+     * total exceeds it.
+     *
+     * @param bytes the budget in bytes, zero for no limit
+     * @throws IllegalArgumentException if <code>bytes</code> is negative
+     */
+    public void setBudget(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        synchronized (this) {
+            budget = bytes;
+        }
+        makeRoom(0);
+    }
+
+    /**
+     * Makes room for a store about to be allocated by having caches
+     * evicted if the store would take the total over the budget. The
+     * caches are evicted in the background; this method does not wait
+     * for them, so it may be called with any lock held.
+     *
+     * @param bytes the size of the store
+     */
+    public void makeRoom(int bytes) {
+        int excess;
+        synchronized (this) {
+            poll();
+            if (budget == 0) {
+                return;
+            }
+            excess = current + bytes - budget;
+        }
+
+        if (excess > 0) {
+            requestEviction(excess);
+        }
+    }
+
+    /**
+     * Accounts a store to this ledger until its owner is collected.
+     *
+     * @param owner the object whose lifetime bounds the store
+     * @param bytes the size of the store
+     */
+    public synchronized void track(Object owner, int bytes) {
+        poll();
+
+        Store store = new Store(owner, this, bytes);
+        store.next = stores;
+        if (stores != null) {
+            stores.prev = store;
+        }
+        stores = store;
+
+        current += bytes;
+        if (current > peak) {
+            peak = current;
+        }
+    }
+
+    // private implementation //
+
+    /**
+     * Keeps track of a store until its owner is collected
+     */
+    private static final class Store extends PhantomReference {
+        final ImageMemory ledger;
+        final int bytes;
+        Store prev, next;
+
+        Store(Object owner, ImageMemory ledger, int bytes) {
+            super(owner, collected);
+            this.ledger = ledger;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Hashtable ledgers = new Hashtable(1);
+    private static ImageMemory unowned; // = null;
+    private static final ReferenceQueue collected = new ReferenceQueue();
+    private static final Vector caches = new Vector();
+
+    /**
+     * Bytes the eviction thread is to release, guarded by
+     * <code>evictions</code>
+     */
+    private static int evictionBytes; // = 0;
+    private static Thread evictionThread; // = null;
+    private static final Object evictions = new Object();
+
+    private int current, peak, budget; // = 0;
+
+    /** tracked stores, kept reachable until their owner is collected */
+    private Store stores; // = null;
+
+    private ImageMemory() {
+    }
+
+    /**
+     * Takes the stores of collected images off their ledgers.
+     */
+    private static void poll() {
+        Store store;
+        while ((store = (Store)collected.poll()) != null) {
+            ImageMemory ledger = store.ledger;
+            synchronized (ledger) {
+                ledger.current -= store.bytes;
+                if (store.prev != null) {
+                    store.prev.next = store.next;
+                } else {
+                    ledger.stores = store.next;
+                }
+                if (store.next != null) {
+                    store.next.prev = store.prev;
+                }
+            }
+        }
+    }
+
+    /**
+     * Has the eviction thread release about <code>bytes</code>, starting
+     * the thread on first use.
+     */
+    private static void requestEviction(int bytes) {
+        synchronized (evictions) {
+            if (bytes > evictionBytes) {
+                evictionBytes = bytes;
+            }
+            if (evictionThread == null) {
+                evictionThread = new Thread(new Evictor(), "Image eviction");
+                evictionThread.setDaemon(true);
+                evictionThread.start();
+            } else {
+                evictions.notify();
+            }
+        }
+    }
+
+    /**
+     * Evicts caches as requested by <code>makeRoom</code>
+     */
+    private static final class Evictor implements Runnable {
+        public void run() {
+            for (;;) {
+                int bytes;
+                synchronized (evictions) {
+                    while (evictionBytes == 0) {
+                        try {
+                            evictions.wait();
+                        } catch (InterruptedException e) {
+                            // the thread lives as long as the process
+                        }
+                    }
+                    bytes = evictionBytes;
+                    evictionBytes = 0;
+                }
+
+                try {
+                    evictCaches(bytes);
+                } catch (RuntimeException e) {
+                    // a failing cache must not stop later evictions
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts caches, oldest registration first, until about
+     * <code>bytes</code> have been released.
+     */
+    private static void evictCaches(int bytes) {
+        int released = 0;
+        for (int i = 0; i < caches.size() && released < bytes; ) {
+            Cache cache;
+            try {
+                cache = (Cache)((WeakReference)caches.elementAt(i)).get();
+            } catch (ArrayIndexOutOfBoundsException e) {
+                break; // registrations removed concurrently
+            }
+
+            if (cache == null) {
+                caches.removeElementAt(i);
+                continue;
+            }
+            released += cache.evict();
+            i++;
+        }
+    }
+}
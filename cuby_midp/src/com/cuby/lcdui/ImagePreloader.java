@@ -0,0 +1,258 @@
+package com.cuby.lcdui;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.microedition.lcdui.Image;
+
+/**
+ * Decodes the images a MIDlet names for preloading in parallel while
+ * it starts up, so that <code>Image.createImage(String)</code> finds
+ * them already decoded, or being decoded, instead of decoding them
+ * one after the other on the MIDlet thread.
+ *
+ * <p>The images are listed, separated by commas, in the
+ * <code>Cuby-Image-Preload</code> manifest attribute or, one per line,
+ * in the <code>/cuby-preload.txt</code> resource. Lines starting with
+ * <code>#</code> are ignored.</p>
+ *
+ * <p>Images not asked for yet are released with the other caches of
+ * <code>ImageMemory</code>, when the images of the MIDlet run over
+ * their budget or the MIDlet is sent to the background. An image
+ * released is decoded again when asked for.</p>
+ */
+public final class ImagePreloader {
+
+    /**
+     * Manifest attribute listing the images to preload
+     */
+    public static final String PRELOAD_PROPERTY = "Cuby-Image-Preload";
+
+    /**
+     * Resource listing the images to preload when the manifest
+     * attribute is missing
+     */
+    public static final String PRELOAD_RESOURCE = "/cuby-preload.txt";
+
+    private ImagePreloader() {
+    }
+
+    /**
+     * Starts decoding the listed images on a pool of at most one thread
+     * per processor. Does nothing if no images are listed.
+     *
+     * @param list the value of the <code>Cuby-Image-Preload</code>
+     * attribute, or <code>null</code> to read the list from
+     * <code>/cuby-preload.txt</code>
+     */
+    public static void start(String list) {
+        String[] names = (list != null) ? split(list, ',') : readList();
+        if (names.length == 0) {
+            return;
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (threads > names.length) {
+            threads = names.length;
+        }
+
+        ImageMemory.register(UNTAKEN);
+
+        ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.SECONDS,
+                                   new LinkedBlockingQueue<Runnable>(),
+                                   new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ImagePreloader");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        for (int i = 0; i < names.length; i++) {
+            final String name = resourceName(names[i]);
+            if (pending.containsKey(name)) {
+                continue;
+            }
+
+            FutureTask<Image> task =
+                new FutureTask<Image>(new Callable<Image>() {
+                    public Image call() throws IOException {
+                        return decode(name);
+                    }
+                });
+            pending.put(name, task);
+            executor.execute(task);
+        }
+
+        // the pool threads exit once the queue is drained
+        executor.shutdown();
+    }
+
+    /**
+     * Hands over a preloaded image. If the image is still queued it is
+     * decoded on the calling thread, if it is being decoded the calling
+     * thread waits for it. An image is handed over only once.
+     *
+     * @param name the resource name the image is requested with
+     * @return the decoded image, or <code>null</code> if the image
+     * was not listed for preloading or was released
+     * @throws IOException if the image could not be loaded or decoded
+     */
+    public static Image take(String name) throws IOException {
+        if (pending.isEmpty()) {
+            return null;
+        }
+
+        FutureTask<Image> task = pending.remove(resourceName(name));
+        if (task == null) {
+            return null;
+        }
+
+        // runs the decode here unless a pool thread already started it
+        task.run();
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e.toString());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause.toString());
+        }
+    }
+
+    // private implementation //
+
+    /**
+     * Images listed for preloading which have not been handed over,
+     * keyed by resource name
+     */
+    private static final Hashtable<String, FutureTask<Image>> pending =
+        new Hashtable<String, FutureTask<Image>>();
+
+    /**
+     * Releases the images not handed over. Queued decodes are
+     * cancelled; a decode already running completes, and its image is
+     * left to the collector.
+     */
+    private static final ImageMemory.Cache UNTAKEN = new ImageMemory.Cache() {
+        public int evict() {
+            int released = 0;
+            synchronized (pending) {
+                for (Enumeration<FutureTask<Image>> e = pending.elements();
+                     e.hasMoreElements(); ) {
+                    FutureTask<Image> task = e.nextElement();
+                    if (task.isDone()) {
+                        try {
+                            Image image = task.get();
+                            released += (image.getWidth()
+                                         * image.getHeight()) << 2;
+                        } catch (ExecutionException failed) {
+                            // nothing was decoded
+                        } catch (InterruptedException cannotHappen) {
+                            // a task done does not wait
+                        }
+                    } else {
+                        task.cancel(false);
+                    }
+                }
+                pending.clear();
+            }
+            return released;
+        }
+    };
+
+    /**
+     * Loads and decodes an image resource.
+     */
+    private static Image decode(String name) throws IOException {
+        InputStream stream = ImagePreloader.class.getResourceAsStream(name);
+        if (stream == null) {
+            throw new IOException(name);
+        }
+
+        try {
+            return Image.createImage(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Reads the list of images from <code>PRELOAD_RESOURCE</code>.
+     */
+    private static String[] readList() {
+        InputStream stream =
+            ImagePreloader.class.getResourceAsStream(PRELOAD_RESOURCE);
+        if (stream == null) {
+            return new String[0];
+        }
+
+        StringBuffer list = new StringBuffer();
+        try {
+            int c;
+            while ((c = stream.read()) != -1) {
+                list.append((char)c);
+            }
+        } catch (IOException e) {
+            return new String[0];
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+            }
+        }
+
+        return split(list.toString(), '\n');
+    }
+
+    /**
+     * Splits a list of names, dropping blank entries and comments.
+     */
+    private static String[] split(String list, char separator) {
+        Vector names = new Vector();
+        int start = 0;
+        while (start <= list.length()) {
+            int end = list.indexOf(separator, start);
+            if (end < 0) {
+                end = list.length();
+            }
+
+            String name = list.substring(start, end).trim();
+            if (name.length() > 0 && name.charAt(0) != '#') {
+                names.addElement(name);
+            }
+            start = end + 1;
+        }
+
+        String[] result = new String[names.size()];
+        names.copyInto(result);
+        return result;
+    }
+
+    /**
+     * Resource names are resolved from the root of the application
+     * package whether or not they start with a slash.
+     */
+    private static String resourceName(String name) {
+        return name.startsWith("/") ? name : "/" + name;
+    }
+}
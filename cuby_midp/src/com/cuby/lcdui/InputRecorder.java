@@ -0,0 +1,253 @@
+package com.cuby.lcdui;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the input of a MIDlet into a compact binary log, to be fed
+ * back by <code>InputReplayer</code>. Key, pointer and command events
+ * are recorded as the display dispatches them, key states as
+ * <code>GameCanvas.getKeyStates</code> returns them, and the start of
+ * each frame, tick and rendering decision of a <code>GameScheduler</code>,
+ * so that a replay takes the game through the same sequence of updates
+ * with every event between the same two steps.
+ *
+ * <p>The log starts with the four bytes <code>CUIL</code> and a format
+ * version. Each record is then a type byte followed by the time since
+ * the previous record in microseconds and the values of the record,
+ * each an integer written seven bits to a byte, lowest first, with the
+ * sign folded into the lowest bit.</p>
+ *
+ * <p>At most one recorder is active at a time. Recording never throws
+ * into the code delivering the input; the first I/O error ends the
+ * recording and is reported by <code>stop</code>.</p>
+ */
+public final class InputRecorder {
+
+    /**
+     * Starts recording to a stream. The stream is buffered by the
+     * recorder and closed by <code>stop</code>.
+     *
+     * @param out the stream to write the log to
+     * @return the new active recorder
+     * @throws NullPointerException if <code>out</code> is
+     * <code>null</code>
+     * @throws IllegalStateException if a recorder is already active
+     * @throws IOException if the header of the log cannot be written
+     */
+    public static synchronized InputRecorder start(OutputStream out)
+        throws IOException {
+        if (out == null) {
+            throw new NullPointerException();
+        }
+        if (active != null) {
+            throw new IllegalStateException();
+        }
+
+        InputRecorder recorder = new InputRecorder(out);
+        active = recorder;
+        return recorder;
+    }
+
+    /**
+     * Stops the active recorder, if any, and closes its stream.
+     *
+     * @throws IOException if writing the log failed at any point
+     */
+    public static void stop() throws IOException {
+        InputRecorder recorder;
+        synchronized (InputRecorder.class) {
+            recorder = active;
+            active = null;
+        }
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    /**
+     * Returns the active recorder.
+     *
+     * @return the recorder, <code>null</code> if input is not being
+     * recorded
+     */
+    public static InputRecorder getActive() {
+        return active;
+    }
+
+    /**
+     * Records a key event.
+     *
+     * @param type one of <code>DisplayAccess.KEY_PRESSED</code>,
+     * <code>KEY_RELEASED</code> or <code>KEY_REPEATED</code>
+     * @param keyCode the key code
+     */
+    public synchronized void keyEvent(int type, int keyCode) {
+        begin(KEY);
+        write(type);
+        write(keyCode);
+    }
+
+    /**
+     * Records a pointer event.
+     *
+     * @param type one of <code>DisplayAccess.POINTER_PRESSED</code>,
+     * <code>POINTER_RELEASED</code> or <code>POINTER_DRAGGED</code>
+     * @param x the horizontal location of the pointer
+     * @param y the vertical location of the pointer
+     */
+    public synchronized void pointerEvent(int type, int x, int y) {
+        begin(POINTER);
+        write(type);
+        write(x);
+        write(y);
+    }
+
+    /**
+     * Records the invocation of a command.
+     *
+     * @param index the place of the command among those of the current
+     * <code>Displayable</code>
+     */
+    public synchronized void commandAction(int index) {
+        begin(COMMAND);
+        write(index);
+    }
+
+    /**
+     * Records key states returned to the game.
+     *
+     * @param states the key states
+     */
+    public synchronized void keyStates(int states) {
+        begin(KEY_STATES);
+        write(states);
+    }
+
+    /**
+     * Records the start of a frame.
+     */
+    public synchronized void frame() {
+        begin(FRAME);
+    }
+
+    /**
+     * Records the start of a tick of the current frame.
+     */
+    public synchronized void tick() {
+        begin(TICK);
+    }
+
+    /**
+     * Records whether the current frame is rendered, once its ticks
+     * have run.
+     *
+     * @param skipped <code>true</code> if the frame is not rendered
+     */
+    public synchronized void render(boolean skipped) {
+        begin(RENDER);
+        write(skipped ? 1 : 0);
+    }
+
+    // package private implementation //
+
+    /** Header of a log, followed by the format version */
+    static final int MAGIC = 0x4355494c;
+    static final int VERSION = 1;
+
+    /** Record types */
+    static final int KEY = 1;
+    static final int POINTER = 2;
+    static final int COMMAND = 3;
+    static final int KEY_STATES = 4;
+    static final int FRAME = 5;
+    static final int TICK = 6;
+    static final int RENDER = 7;
+
+    // private implementation //
+
+    /** the recorder input is recorded to, <code>null</code> if none */
+    private static volatile InputRecorder active; // = null;
+
+    /** the stream the log is written to */
+    private final OutputStream out;
+
+    /** the time recording started */
+    private final long origin;
+
+    /** the time of the last record since <code>origin</code> */
+    private long lastMicros; // = 0;
+
+    /** the first error, recording stops at it */
+    private IOException error; // = null;
+
+    private InputRecorder(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            this.out.write(MAGIC >>> shift);
+        }
+        write(VERSION);
+        if (error != null) {
+            throw error;
+        }
+        origin = System.nanoTime();
+    }
+
+    /**
+     * Starts a record: its type and the time since the previous one.
+     */
+    private void begin(int type) {
+        // whole microseconds since the start, so that rounding does
+        // not build up along the log
+        long now = (System.nanoTime() - origin) / 1000;
+        long micros = now - lastMicros;
+        lastMicros = now;
+
+        if (error == null) {
+            try {
+                out.write(type);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        write((int)Math.min(micros, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Writes a value, seven bits to a byte with the sign in the
+     * lowest bit.
+     */
+    private void write(int value) {
+        if (error != null) {
+            return;
+        }
+
+        int v = (value << 1) ^ (value >> 31);
+        try {
+            while ((v & ~0x7f) != 0) {
+                out.write((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Flushes and closes the stream, reporting the first error.
+     */
+    private synchronized void close() throws IOException {
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.cuby.lcdui;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.lcdui.Command;
+import javax.microedition.lcdui.Display;
+
+/**
+ * Feeds a log written by <code>InputRecorder</code> back to a display.
+ * The replay is driven by the <code>GameScheduler</code> started while
+ * the replayer is active: each frame runs the ticks recorded for it and
+ * is rendered or skipped as recorded, events are delivered between the
+ * same steps they arrived between, and
+ * <code>GameCanvas.getKeyStates</code> returns the recorded states.
+ * The game thus goes through the same updates as when it was recorded,
+ * on any machine and at any speed, and the frame statistics of the
+ * scheduler can be compared between builds.
+ *
+ * <p>Time is taken from the log, not from the clock. At recorded speed
+ * each record is held back until as much time has passed since the
+ * start of the replay as had passed since the start of the recording;
+ * at maximum speed records are delivered as soon as the game asks for
+ * them.</p>
+ *
+ * <p>At most one replayer is active at a time. Platform input is
+ * ignored while a replay is active.</p>
+ */
+public final class InputReplayer {
+
+    /**
+     * Creates a replayer reading a log, not yet active.
+     *
+     * @param in the stream to read the log from, closed at the end of
+     * the log
+     * @param display the display to deliver the events to
+     * @throws NullPointerException if <code>in</code> or
+     * <code>display</code> is <code>null</code>
+     * @throws IOException if the stream does not start with the header
+     * of a log of a known version
+     */
+    public InputReplayer(InputStream in, Display display)
+        throws IOException {
+        if (in == null || display == null) {
+            throw new NullPointerException();
+        }
+
+        this.in = new BufferedInputStream(in);
+        this.display = display;
+
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            magic = (magic << 8) | readByte();
+        }
+        if (magic != InputRecorder.MAGIC
+            || readValue() != InputRecorder.VERSION) {
+            throw new IOException("not an input log");
+        }
+    }
+
+    /**
+     * Sets whether records are delivered as soon as the game asks for
+     * them rather than at their recorded times. The default is
+     * <code>false</code>.
+     *
+     * @param maxSpeed <code>true</code> to replay at maximum speed
+     */
+    public synchronized void setMaxSpeed(boolean maxSpeed) {
+        this.maxSpeed = maxSpeed;
+    }
+
+    /**
+     * Makes this replayer the active one. The recorded time starts to
+     * run.
+     *
+     * @throws IllegalStateException if a replayer is already active
+     */
+    public void start() {
+        synchronized (InputReplayer.class) {
+            if (active != null) {
+                throw new IllegalStateException();
+            }
+            active = this;
+        }
+        synchronized (this) {
+            origin = System.nanoTime();
+        }
+    }
+
+    /**
+     * Deactivates the active replayer, if any, and closes its stream.
+     */
+    public static void stop() {
+        InputReplayer replayer;
+        synchronized (InputReplayer.class) {
+            replayer = active;
+            active = null;
+        }
+        if (replayer != null) {
+            replayer.finish(null);
+        }
+    }
+
+    /**
+     * Returns the active replayer.
+     *
+     * @return the replayer, <code>null</code> if no replay is active
+     */
+    public static InputReplayer getActive() {
+        return active;
+    }
+
+    /**
+     * Tells whether the end of the log was reached.
+     *
+     * @return <code>true</code> if there is nothing left to replay
+     */
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the error that ended the replay early.
+     *
+     * @return the error, <code>null</code> if the log was read to its
+     * end or is still being read
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    /**
+     * Delivers the events recorded before the next frame. Called by the
+     * scheduler at the start of each frame.
+     *
+     * @return <code>false</code> at the end of the log
+     */
+    public boolean nextFrame() {
+        return next(InputRecorder.FRAME, 0) != NONE;
+    }
+
+    /**
+     * Delivers the events recorded before the next tick of the current
+     * frame. Called by the scheduler before each update.
+     *
+     * @return <code>true</code> if the frame runs another tick
+     */
+    public boolean nextTick() {
+        return next(InputRecorder.TICK,
+                    (1 << InputRecorder.RENDER)
+                    | (1 << InputRecorder.FRAME)) != NONE;
+    }
+
+    /**
+     * Delivers the events recorded before the rendering decision of the
+     * current frame and returns that decision. Called by the scheduler
+     * once the ticks of the frame have run.
+     *
+     * @return <code>true</code> if the frame is not to be rendered
+     */
+    public boolean skipRender() {
+        long skip = next(InputRecorder.RENDER, 1 << InputRecorder.FRAME);
+        return skip != NONE && skip != 0;
+    }
+
+    /**
+     * Delivers the events recorded before the next call to
+     * <code>getKeyStates</code> and returns the states it returned.
+     *
+     * @return the recorded key states, <code>0</code> if the game asks
+     * for more states than were recorded for the frame
+     */
+    public int nextKeyStates() {
+        // a record of the next step means the game diverged from the
+        // recording
+        long states = next(InputRecorder.KEY_STATES,
+                           (1 << InputRecorder.FRAME)
+                           | (1 << InputRecorder.TICK)
+                           | (1 << InputRecorder.RENDER));
+        return states == NONE ? 0 : (int)states;
+    }
+
+    // private implementation //
+
+    /** returned by <code>next</code> when no record was taken */
+    private static final long NONE = Long.MIN_VALUE;
+
+    /** the replayer feeding the display, <code>null</code> if none */
+    private static volatile InputReplayer active; // = null;
+
+    private final InputStream in;
+    private final Display display;
+    private boolean maxSpeed; // = false;
+
+    /** the time the replay started */
+    private long origin;
+
+    /** the time of the last record read, since the start of the log */
+    private long logMicros; // = 0;
+
+    /** the record read ahead, valid while <code>pending</code> is set */
+    private boolean pending; // = false;
+    private int type;
+    private final int[] values = new int[3];
+
+    private boolean finished; // = false;
+    private IOException error; // = null;
+
+    /**
+     * Reads the next record unless it was read already.
+     *
+     * @return <code>false</code> at the end of the log
+     */
+    private boolean peek() {
+        if (pending) {
+            return true;
+        }
+        if (finished) {
+            return false;
+        }
+
+        try {
+            int t = in.read();
+            if (t < 0) {
+                finish(null);
+                return false;
+            }
+
+            int count;
+            switch (t) {
+            case InputRecorder.KEY:
+                count = 2;
+                break;
+            case InputRecorder.POINTER:
+                count = 3;
+                break;
+            case InputRecorder.COMMAND:
+            case InputRecorder.KEY_STATES:
+            case InputRecorder.RENDER:
+                count = 1;
+                break;
+            case InputRecorder.FRAME:
+            case InputRecorder.TICK:
+                count = 0;
+                break;
+            default:
+                throw new IOException("unknown record " + t);
+            }
+
+            logMicros += readValue();
+            for (int i = 0; i < count; i++) {
+                values[i] = readValue();
+            }
+            type = t;
+            pending = true;
+            return true;
+        } catch (IOException e) {
+            finish(e);
+            return false;
+        }
+    }
+
+    /**
+     * Takes the record read ahead.
+     *
+     * @return the time until the record is due, in nanoseconds
+     */
+    private long consume() {
+        pending = false;
+        if (maxSpeed) {
+            return 0;
+        }
+        return origin + logMicros * 1000 - System.nanoTime();
+    }
+
+    /**
+     * Waits until a record taken is due. Called with the replayer
+     * unlocked.
+     *
+     * @param wait the time returned by <code>consume</code>
+     */
+    private static void pause(long wait) {
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Delivers the events read ahead until a record of the type wanted,
+     * which is taken, or of one of the types to stop at, which is left
+     * for later. Other records, left over when the game diverged from
+     * the recording, are dropped.
+     *
+     * <p>The record is read with the replayer locked, but the wait for
+     * its time to come and the delivery of the event are done with the
+     * lock released: the game may ask for its key states while handling
+     * the event, and the other methods of the replayer do not wait for
+     * the next record.</p>
+     *
+     * @param wanted the type of record to take
+     * @param stops the types of records to stop at, one bit per type
+     * @return the first value of the record taken, <code>NONE</code>
+     * at a record to stop at or at the end of the log
+     */
+    private long next(int wanted, int stops) {
+        for (;;) {
+            int t, a, b, c;
+            long wait;
+            synchronized (this) {
+                if (!peek()) {
+                    return NONE;
+                }
+                t = type;
+                if ((stops & (1 << t)) != 0) {
+                    return NONE;
+                }
+                a = values[0];
+                b = values[1];
+                c = values[2];
+                wait = consume();
+            }
+
+            pause(wait);
+            if (t == wanted) {
+                return a;
+            }
+
+            DisplayAccess access = DisplayAccess.getInstance();
+            switch (t) {
+            case InputRecorder.KEY:
+                access.keyEvent(display, a, b);
+                break;
+            case InputRecorder.POINTER:
+                access.pointerEvent(display, a, b, c);
+                break;
+            case InputRecorder.COMMAND:
+                Command[] commands = access.getCommands(display);
+                if (a >= 0 && a < commands.length) {
+                    access.commandAction(display, commands[a]);
+                }
+                break;
+            default:
+                continue;
+            }
+
+            // the game goes on only once the event reached it
+            access.waitForEvents(display);
+        }
+    }
+
+    /**
+     * Ends the replay, closing the stream.
+     */
+    private synchronized void finish(IOException e) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        pending = false;
+        error = e;
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // nothing more is read
+        }
+    }
+
+    /**
+     * Reads a byte of the log.
+     */
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    /**
+     * Reads a value written by <code>InputRecorder</code>.
+     */
+    private int readValue() throws IOException {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = readByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            if (shift >= 28) {
+                throw new IOException("malformed value");
+            }
+        }
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
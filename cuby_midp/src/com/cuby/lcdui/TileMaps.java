@@ -0,0 +1,51 @@
+package com.cuby.lcdui;
+
+import java.nio.ByteBuffer;
+
+import javax.microedition.lcdui.game.TiledLayer;
+
+/**
+ * Vendor extensions for filling tiled layers.
+ */
+public final class TileMaps {
+
+    private TileMaps() {
+    }
+
+    /**
+     * Takes the contents of all cells of a layer from a buffer,
+     * typically a region of a memory-mapped level file. The buffer
+     * holds the cells row by row starting at its position, each cell a
+     * signed tile index of <code>cellSize</code> bytes in the byte order
+     * of the buffer. Cells are read from the buffer as they are needed,
+     * and copied in by blocks as they are set; the buffer itself is
+     * never written. Animated tiles are kept.
+     * <p>
+     * Every index is checked before any cell is taken: each must be
+     * <code>0</code>, a valid static tile index or the index of an
+     * animated tile already created. The buffer must not change while
+     * the layer reads from it.
+     *
+     * @param layer the layer whose cells are set
+     * @param cells the buffer holding the cells
+     * @param cellSize the size of a cell in the buffer, in bytes:
+     * <code>1</code>, <code>2</code> or <code>4</code>
+     * @throws NullPointerException if <code>layer</code> or
+     * <code>cells</code> is <code>null</code>
+     * @throws IllegalArgumentException if <code>cellSize</code> is not
+     * one of <code>1</code>, <code>2</code> or <code>4</code>
+     * @throws IllegalArgumentException if the buffer holds less than
+     * <code>getColumns() * getRows()</code> cells of the layer
+     * @throws IndexOutOfBoundsException if a cell holds an invalid
+     * tile index; the cells of the layer are then left as they were
+     * @see TiledLayer#setCell
+     */
+    public static void mapCells(TiledLayer layer, ByteBuffer cells,
+                                int cellSize) {
+        if (layer == null || cells == null) {
+            throw new NullPointerException();
+        }
+        // the layer exists, so its class registered the implementation
+        GameAccess.getInstance().mapCells(layer, cells, cellSize);
+    }
+}
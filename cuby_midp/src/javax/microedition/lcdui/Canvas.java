@@ -1,6 +1,11 @@
 
 package javax.microedition.lcdui;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cuby.lcdui.DisplayAccess;
+import com.cuby.lcdui.GameAccess;
+
 /* import javax.microedition.lcdui.KeyConverter; */
 
 
@@ -526,8 +531,28 @@ public abstract class Canvas extends Displayable {
      * is not a valid game action
      */
     public int getKeyCode(int gameAction) {
-
-        return 0;
+        switch (gameAction) {
+        case UP:
+            return KEYCODE_UP;
+        case DOWN:
+            return KEYCODE_DOWN;
+        case LEFT:
+            return KEYCODE_LEFT;
+        case RIGHT:
+            return KEYCODE_RIGHT;
+        case FIRE:
+            return KEYCODE_SELECT;
+        case GAME_A:
+            return KEY_NUM1;
+        case GAME_B:
+            return KEY_NUM3;
+        case GAME_C:
+            return KEY_NUM7;
+        case GAME_D:
+            return KEY_NUM9;
+        default:
+            throw new IllegalArgumentException();
+        }
     }
     
     /**
@@ -582,8 +607,10 @@ public abstract class Canvas extends Displayable {
      * is not a valid key code
      */
     public int getGameAction(int keyCode) {
-
-        return 0;
+        if (keyCode == 0) {
+            throw new IllegalArgumentException();
+        }
+        return gameActionOf(keyCode);
     }
 
     /**
@@ -735,7 +762,52 @@ public abstract class Canvas extends Displayable {
      * @see #serviceRepaints()
      */
     public final void repaint(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
 
+        Display d = display;
+        if (d == null) {
+            return;
+        }
+
+        int x1 = Math.max(x, 0);
+        int y1 = Math.max(y, 0);
+        int x2 = Math.min(x + width, Math.min(getWidth(), COORD_MASK));
+        int y2 = Math.min(y + height, Math.min(getHeight(), COORD_MASK));
+        if (x1 >= x2 || y1 >= y2) {
+            return;
+        }
+
+        long state, next;
+        do {
+            state = repaintState.get();
+            long region = state & REGION_MASK;
+            if (region != 0) {
+                // a single paint covers every pending request
+                int rx1 = (int)(region >>> (COORD_BITS * 3));
+                int ry1 = (int)(region >>> (COORD_BITS * 2)) & COORD_MASK;
+                int rx2 = (int)(region >>> COORD_BITS) & COORD_MASK;
+                int ry2 = (int)region & COORD_MASK;
+                if (rx1 <= x1 && ry1 <= y1 && rx2 >= x2 && ry2 >= y2) {
+                    return;
+                }
+                x1 = Math.min(x1, rx1);
+                y1 = Math.min(y1, ry1);
+                x2 = Math.max(x2, rx2);
+                y2 = Math.max(y2, ry2);
+            }
+            next = (state & ~REGION_MASK)
+                | ((long)x1 << (COORD_BITS * 3))
+                | ((long)y1 << (COORD_BITS * 2))
+                | ((long)x2 << COORD_BITS)
+                | y2;
+        } while (!repaintState.compareAndSet(state, next));
+
+        // only the request finding nothing pending queues a paint
+        if ((state & REGION_MASK) == 0) {
+            d.post(EventQueue.REPAINT, 0, 0, 0, this);
+        }
     }
 
     /**
@@ -744,7 +816,7 @@ public abstract class Canvas extends Displayable {
      * <p> <code> repaint(0, 0, getWidth(), getHeight()); </code>
      */
     public final void repaint() {
-
+        repaint(0, 0, getWidth(), getHeight());
     }
     
     /**
@@ -775,7 +847,38 @@ public abstract class Canvas extends Displayable {
      * @see Display#callSerially(Runnable)
      */
     public final void serviceRepaints() {
+        Display d = display;
+        if (d == null) {
+            return;
+        }
 
+        if (d.isDispatchThread()) {
+            // the event thread cannot wait for itself, the paint is
+            // done right away and the queued request finds nothing
+            d.paint(this);
+            return;
+        }
+
+        // the paint to wait for: the next one if a region is pending,
+        // otherwise the last one, which may still be running
+        long state = repaintState.get();
+        int target = (int)(state >>> GEN_SHIFT);
+        if ((state & REGION_MASK) != 0) {
+            target = (target + 1) & GEN_MASK;
+        }
+
+        synchronized (repaintLock) {
+            paintWaiters++;
+            try {
+                while (isBefore(paintedGeneration, target)) {
+                    repaintLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                paintWaiters--;
+            }
+        }
     }
 
     /**
@@ -945,6 +1048,207 @@ public abstract class Canvas extends Displayable {
         // this method is intended to be overridden by the application
     }
 
+    // package private implementation //
+
+    /**
+     * Records a game key event in the key states of this canvas, if it
+     * is a game canvas. Called as the event is posted, before it is
+     * queued.
+     *
+     * @param type one of <code>DisplayAccess.KEY_PRESSED</code>,
+     * <code>KEY_RELEASED</code> or <code>KEY_REPEATED</code>
+     * @param keyCode the key code of the key
+     */
+    void latchKey(int type, int keyCode) {
+        int gameAction = gameActionOf(keyCode);
+        if (gameAction != 0) {
+            GameAccess access = GameAccess.getInstance();
+            if (access != null) {
+                access.latchGameKey(this, type, gameAction);
+            }
+        }
+    }
+
+    /**
+     * Delivers a key event to this canvas. A game canvas may keep game
+     * keys from reaching the key event methods; their states were
+     * recorded when the event was posted.
+     *
+     * @param type one of <code>DisplayAccess.KEY_PRESSED</code>,
+     * <code>KEY_RELEASED</code> or <code>KEY_REPEATED</code>
+     * @param keyCode the key code of the key
+     */
+    void keyEvent(int type, int keyCode) {
+        if (gameActionOf(keyCode) != 0) {
+            GameAccess access = GameAccess.getInstance();
+            if (access != null && access.suppressesKeyEvents(this)) {
+                return;
+            }
+        }
 
+        switch (type) {
+        case DisplayAccess.KEY_PRESSED:
+            keyPressed(keyCode);
+            break;
+        case DisplayAccess.KEY_RELEASED:
+            keyReleased(keyCode);
+            break;
+        case DisplayAccess.KEY_REPEATED:
+            keyRepeated(keyCode);
+            break;
+        }
+    }
 
+    /**
+     * Takes the pending repaint request, if any. The paint must then
+     * be reported to <code>repaintDone</code>, even if it fails.
+     *
+     * @param rect receives the region to paint, as left, top, right
+     * and bottom edges
+     * @return the generation of the paint, <code>-1</code> if no
+     * repaint was pending
+     */
+    int takeRepaint(int[] rect) {
+        long state, next;
+        do {
+            state = repaintState.get();
+            if ((state & REGION_MASK) == 0) {
+                return -1;
+            }
+            next = ((state >>> GEN_SHIFT) + 1 & GEN_MASK) << GEN_SHIFT;
+        } while (!repaintState.compareAndSet(state, next));
+
+        rect[0] = (int)(state >>> (COORD_BITS * 3)) & COORD_MASK;
+        rect[1] = (int)(state >>> (COORD_BITS * 2)) & COORD_MASK;
+        rect[2] = (int)(state >>> COORD_BITS) & COORD_MASK;
+        rect[3] = (int)state & COORD_MASK;
+        return (int)(next >>> GEN_SHIFT);
+    }
+
+    /**
+     * Reports a paint done, releasing the threads waiting for it in
+     * <code>serviceRepaints</code>.
+     *
+     * @param generation the generation returned by
+     * <code>takeRepaint</code>
+     */
+    void repaintDone(int generation) {
+        synchronized (repaintLock) {
+            paintedGeneration = generation;
+            if (paintWaiters > 0) {
+                repaintLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Delivers a pointer event to this canvas.
+     *
+     * @param type one of <code>DisplayAccess.POINTER_PRESSED</code>,
+     * <code>POINTER_RELEASED</code> or <code>POINTER_DRAGGED</code>
+     * @param x the horizontal location of the pointer
+     * @param y the vertical location of the pointer
+     */
+    void pointerEvent(int type, int x, int y) {
+        switch (type) {
+        case DisplayAccess.POINTER_PRESSED:
+            pointerPressed(x, y);
+            break;
+        case DisplayAccess.POINTER_RELEASED:
+            pointerReleased(x, y);
+            break;
+        case DisplayAccess.POINTER_DRAGGED:
+            pointerDragged(x, y);
+            break;
+        }
+    }
+
+    /**
+     * The display this canvas is current on, <code>null</code> while it
+     * is not current. Set by <code>Display.setCurrent</code>.
+     */
+    volatile Display display; // = null;
+
+    // private implementation //
+
+    /**
+     * Layout of the repaint state: the region to paint takes the low
+     * bits, its left, top, right and bottom edges <code>COORD_BITS</code>
+     * bits each, and the generation of the last paint taken the bits
+     * above
+     */
+    private static final int COORD_BITS = 13;
+    private static final int COORD_MASK = (1 << COORD_BITS) - 1;
+    private static final long REGION_MASK = (1L << (COORD_BITS * 4)) - 1;
+    private static final int GEN_SHIFT = COORD_BITS * 4;
+    private static final int GEN_MASK = (1 << (64 - GEN_SHIFT)) - 1;
+
+    /**
+     * The pending repaint region, empty if none, and the number of
+     * paints taken, in a single word so that requests from any thread
+     * are merged without locking.
+     */
+    private final AtomicLong repaintState = new AtomicLong();
+
+    /**
+     * The generation of the last paint done and the number of threads
+     * waiting in <code>serviceRepaints</code>, guarded by
+     * <code>repaintLock</code>
+     */
+    private final Object repaintLock = new Object();
+    private int paintedGeneration; // = 0;
+    private int paintWaiters; // = 0;
+
+    /**
+     * Tells whether a paint generation comes before another, the
+     * generations wrapping around.
+     */
+    private static boolean isBefore(int generation, int other) {
+        return ((generation - other) & GEN_MASK) > (GEN_MASK >> 1);
+    }
+
+    /**
+     * Key codes of the navigation keys, the negative codes most
+     * handsets use
+     */
+    private static final int KEYCODE_UP = -1;
+    private static final int KEYCODE_DOWN = -2;
+    private static final int KEYCODE_LEFT = -3;
+    private static final int KEYCODE_RIGHT = -4;
+    private static final int KEYCODE_SELECT = -5;
+
+    /**
+     * Maps a key code to its game action. The navigation keys and the
+     * number keys around 5 move and fire; the corner number keys are
+     * the <code>GAME_A</code> to <code>GAME_D</code> keys.
+     */
+    private static int gameActionOf(int keyCode) {
+        switch (keyCode) {
+        case KEYCODE_UP:
+        case KEY_NUM2:
+            return UP;
+        case KEYCODE_DOWN:
+        case KEY_NUM8:
+            return DOWN;
+        case KEYCODE_LEFT:
+        case KEY_NUM4:
+            return LEFT;
+        case KEYCODE_RIGHT:
+        case KEY_NUM6:
+            return RIGHT;
+        case KEYCODE_SELECT:
+        case KEY_NUM5:
+            return FIRE;
+        case KEY_NUM1:
+            return GAME_A;
+        case KEY_NUM3:
+            return GAME_B;
+        case KEY_NUM7:
+            return GAME_C;
+        case KEY_NUM9:
+            return GAME_D;
+        default:
+            return 0;
+        }
+    }
 }
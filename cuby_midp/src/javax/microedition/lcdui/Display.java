@@ -6,6 +6,11 @@ import java.util.HashMap;
 
 import javax.microedition.midlet.MIDlet;
 
+import com.cuby.lcdui.DisplayAccess;
+import com.cuby.lcdui.DisplayView;
+import com.cuby.lcdui.GameAccess;
+import com.cuby.lcdui.InputRecorder;
+
 
 
 
@@ -590,7 +595,32 @@ public class Display {
      * @see #getCurrent
      */
     public void setCurrent(Displayable nextDisplayable) {
+        Displayable previous = current;
     	current = nextDisplayable;
+
+        if (previous != nextDisplayable) {
+            if (previous instanceof Canvas) {
+                ((Canvas)previous).display = null;
+            }
+            if (nextDisplayable instanceof Canvas) {
+                ((Canvas)nextDisplayable).display = this;
+            }
+
+            GameAccess access = GameAccess.getInstance();
+            if (access != null) {
+                if (previous instanceof Canvas) {
+                    access.visibilityChanged((Canvas)previous, false);
+                }
+                if (nextDisplayable instanceof Canvas) {
+                    access.visibilityChanged((Canvas)nextDisplayable, true);
+                }
+            }
+
+            // a canvas coming into view is painted whole
+            if (nextDisplayable instanceof Canvas) {
+                ((Canvas)nextDisplayable).repaint();
+            }
+        }
     }
 
    
@@ -777,7 +807,8 @@ public class Display {
         if (r == null) {
             throw new NullPointerException();
         }
-      
+
+        events.post(EventQueue.CALL, 0, 0, 0, r);
     }
 
     /**
@@ -916,14 +947,296 @@ public class Display {
  
     }
 
+    /**
+     * Gets the number of events waiting to be delivered: input,
+     * commands, <code>callSerially</code> calls and repaints.
+     * This method is a cuby extension to MIDP.
+     *
+     * @return the depth of the event queue
+     */
+    public int getEventQueueDepth() {
+        return events.getDepth();
+    }
+
+    /**
+     * Gets the largest number of events waiting at any one time since
+     * the event statistics were reset.
+     * This method is a cuby extension to MIDP.
+     *
+     * @return the deepest the event queue got
+     */
+    public int getMaxEventQueueDepth() {
+        return events.getMaxDepth();
+    }
+
+    /**
+     * Gets the number of pointer drags merged into a drag still
+     * waiting to be delivered since the event statistics were reset.
+     * A <code>Canvas</code> then gets one <code>pointerDragged</code>
+     * call, with the latest location, for all the drags merged.
+     * This method is a cuby extension to MIDP.
+     *
+     * @return the number of drags merged
+     */
+    public long getCoalescedDragCount() {
+        return events.getCoalescedDrags();
+    }
+
+    /**
+     * Gets a percentile of the time the last events waited between
+     * being queued and being delivered, over the last
+     * <code>128</code> events.
+     * This method is a cuby extension to MIDP.
+     *
+     * @param percentile the percentile, from <code>0</code> to
+     * <code>100</code>
+     * @return the latency, in microseconds, or <code>0</code> if no
+     * event was delivered yet
+     * @throws IllegalArgumentException if <code>percentile</code> is
+     * out of range
+     */
+    public int getDispatchLatency(int percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException();
+        }
+        return events.getLatency(percentile);
+    }
+
+    /**
+     * Clears the event statistics.
+     * This method is a cuby extension to MIDP.
+     */
+    public void resetEventStats() {
+        events.resetStats();
+    }
+
 
    
     
+    static {
+        DisplayAccess.register(new DisplayAccessImpl());
+    }
+
     Display(MIDlet m){
-    	
+    	events = new EventQueue(this);
+    }
+
+    /**
+     * Queues an event for the event thread.
+     *
+     * @param kind one of the event kinds of <code>EventQueue</code>
+     * @param a the first value of the event
+     * @param b the second value of the event
+     * @param c the third value of the event
+     * @param ref the object of the event
+     */
+    void post(int kind, int a, int b, int c, Object ref) {
+        events.post(kind, a, b, c, ref);
+    }
+
+    /**
+     * Posts a key event for the current <code>Displayable</code>. The
+     * key states of a game canvas are brought up to date at once, on
+     * the posting thread; only the delivery to the key event methods
+     * waits in the queue.
+     *
+     * @param type one of <code>DisplayAccess.KEY_PRESSED</code>,
+     * <code>KEY_RELEASED</code> or <code>KEY_REPEATED</code>
+     * @param keyCode the key code of the key
+     */
+    void postKeyEvent(int type, int keyCode) {
+        Displayable d = current;
+        if (d instanceof Canvas) {
+            ((Canvas)d).latchKey(type, keyCode);
+        }
+        events.post(EventQueue.KEY, type, keyCode, 0, null);
+    }
+
+    /**
+     * Tells whether the calling thread delivers the events of this
+     * display.
+     *
+     * @return <code>true</code> if called from the event thread
+     */
+    boolean isDispatchThread() {
+        return events.isDispatchThread();
+    }
+
+    /**
+     * Waits until the events queued so far have been delivered.
+     */
+    void waitForEvents() {
+        events.waitForEvents();
+    }
+
+    /**
+     * Delivers an event taken from the queue. Called by the event
+     * thread.
+     *
+     * @param kind one of the event kinds of <code>EventQueue</code>
+     * @param a the first value of the event
+     * @param b the second value of the event
+     * @param c the third value of the event
+     * @param ref the object of the event
+     */
+    void dispatch(int kind, int a, int b, int c, Object ref) {
+        switch (kind) {
+        case EventQueue.KEY:
+            keyEvent(a, b);
+            break;
+        case EventQueue.POINTER:
+            pointerEvent(a, b, c);
+            break;
+        case EventQueue.COMMAND:
+            commandAction((Command)ref);
+            break;
+        case EventQueue.CALL:
+            ((Runnable)ref).run();
+            break;
+        case EventQueue.REPAINT:
+            paint((Canvas)ref);
+            break;
+        }
+    }
+
+    /**
+     * Paints the pending repaint region of a canvas and presents it.
+     * Called on the event thread. A canvas that is no longer current
+     * is not painted. Requests made while the previous frame is still
+     * being presented collapse into the pending region, so that a
+     * canvas repainting faster than the display is painted once per
+     * frame.
+     *
+     * @param c the canvas
+     */
+    void paint(Canvas c) {
+        int[] rect = repaintRect;
+        int generation = c.takeRepaint(rect);
+        if (generation < 0) {
+            return;
+        }
+
+        try {
+            if (c != current) {
+                return;
+            }
+
+            int w = c.getWidth();
+            int h = c.getHeight();
+            if (frame == null || frame.getWidth() != w
+                || frame.getHeight() != h) {
+                frame = null;
+                frameGraphics = null;
+                frame = Image.createImage(w, h);
+                frameGraphics = frame.getGraphics();
+            }
+
+            frameGraphics.reset(rect[0], rect[1], rect[2], rect[3]);
+            c.paint(frameGraphics);
+
+            DisplayView view = DisplayView.getInstance();
+            if (view != null) {
+                view.present(frame, rect[0], rect[1],
+                             rect[2] - rect[0], rect[3] - rect[1]);
+            }
+        } finally {
+            c.repaintDone(generation);
+        }
+    }
+
+    /**
+     * Delivers a key event to the current <code>Displayable</code>.
+     * Only canvases take key events.
+     *
+     * @param type one of <code>DisplayAccess.KEY_PRESSED</code>,
+     * <code>KEY_RELEASED</code> or <code>KEY_REPEATED</code>
+     * @param keyCode the key code of the key
+     */
+    void keyEvent(int type, int keyCode) {
+        InputRecorder recorder = InputRecorder.getActive();
+        if (recorder != null) {
+            recorder.keyEvent(type, keyCode);
+        }
+
+        Displayable d = current;
+        if (d instanceof Canvas) {
+            ((Canvas)d).keyEvent(type, keyCode);
+        }
+    }
+
+    /**
+     * Delivers a pointer event to the current <code>Displayable</code>.
+     * Only canvases take pointer events; they take the whole display,
+     * so the location needs no translation.
+     *
+     * @param type one of <code>DisplayAccess.POINTER_PRESSED</code>,
+     * <code>POINTER_RELEASED</code> or <code>POINTER_DRAGGED</code>
+     * @param x the horizontal location of the pointer
+     * @param y the vertical location of the pointer
+     */
+    void pointerEvent(int type, int x, int y) {
+        InputRecorder recorder = InputRecorder.getActive();
+        if (recorder != null) {
+            recorder.pointerEvent(type, x, y);
+        }
+
+        Displayable d = current;
+        if (d instanceof Canvas) {
+            ((Canvas)d).pointerEvent(type, x, y);
+        }
+    }
+
+    /**
+     * Invokes a command of the current <code>Displayable</code>.
+     *
+     * @param cmd the command
+     */
+    void commandAction(Command cmd) {
+        Displayable d = current;
+        if (d == null) {
+            return;
+        }
+
+        InputRecorder recorder = InputRecorder.getActive();
+        if (recorder != null) {
+            // commands are logged by their place on the displayable
+            Command[] commands = d.getCommands();
+            for (int i = 0; i < commands.length; i++) {
+                if (commands[i] == cmd) {
+                    recorder.commandAction(i);
+                    break;
+                }
+            }
+        }
+
+        d.commandAction(cmd);
+    }
+
+    /**
+     * Returns the commands of the current <code>Displayable</code>.
+     *
+     * @return the commands, an empty array if there is no current
+     * <code>Displayable</code>
+     */
+    Command[] getCommands() {
+        Displayable d = current;
+        return (d != null) ? d.getCommands() : new Command[0];
     }
     
-    private Displayable current;
+    private volatile Displayable current;
+
+    /** the events of this display */
+    private final EventQueue events;
+
+    /**
+     * The image canvases are painted to before being presented, as
+     * large as the display, and its graphics. Used by the event thread.
+     */
+    private Image frame; // = null;
+    private Graphics frameGraphics; // = null;
+
+    /** the region being painted, used by the event thread */
+    private final int[] repaintRect = new int[4];
 
     
     private static HashMap m2d = new HashMap(1); //usually 1 midlet and 1 display
@@ -0,0 +1,30 @@
+package javax.microedition.lcdui;
+
+import com.cuby.lcdui.DisplayAccess;
+
+/**
+ * Implementation of <code>DisplayAccess</code>, registered by
+ * <code>Display</code>.
+ */
+final class DisplayAccessImpl extends DisplayAccess {
+
+    public void keyEvent(Display display, int type, int keyCode) {
+        display.postKeyEvent(type, keyCode);
+    }
+
+    public void pointerEvent(Display display, int type, int x, int y) {
+        display.post(EventQueue.POINTER, type, x, y, null);
+    }
+
+    public void commandAction(Display display, Command command) {
+        display.post(EventQueue.COMMAND, 0, 0, 0, command);
+    }
+
+    public void waitForEvents(Display display) {
+        display.waitForEvents();
+    }
+
+    public Command[] getCommands(Display display) {
+        return display.getCommands();
+    }
+}
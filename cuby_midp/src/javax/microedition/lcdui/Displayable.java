@@ -6,6 +6,8 @@ import java.util.Vector;
 import javax.microedition.midlet.MIDlet;
 import javax.microedition.midlet.MIDletContainer;
 
+import com.cuby.lcdui.DisplayView;
+
 /**
  * An object that has the capability of being placed on the display.  A 
  * <code>Displayable</code> object may have a title, a ticker,
@@ -246,7 +248,12 @@ public abstract class Displayable {
      * @return width of the area available to the application
      */
     public int getWidth() {
-    	return 0;
+        DisplayView view = DisplayView.getInstance();
+        if (view != null && view.getWidth() > 0) {
+            return view.getWidth();
+        }
+        android.view.Display display = getScreen();
+        return display == null ? DEFAULT_WIDTH : display.getWidth();
     }
 
     /**
@@ -262,7 +269,12 @@ public abstract class Displayable {
      * @return height of the area available to the application
      */
     public int getHeight() {
-    	return 0;
+        DisplayView view = DisplayView.getInstance();
+        if (view != null && view.getHeight() > 0) {
+            return view.getHeight();
+        }
+        android.view.Display display = getScreen();
+        return display == null ? DEFAULT_HEIGHT : display.getHeight();
     }
 
 // ************************************************************
@@ -318,6 +330,54 @@ public abstract class Displayable {
         // this method is intended to be overridden by the application
     }
 
+    /**
+     * Returns the commands added, in the order they were added.
+     *
+     * @return the commands of this <code>Displayable</code>
+     */
+    Command[] getCommands() {
+        synchronized (cmds) {
+            Command[] commands = new Command[cmds.size()];
+            cmds.copyInto(commands);
+            return commands;
+        }
+    }
+
+    /**
+     * Tells the command listener, if any, that a command was invoked.
+     *
+     * @param cmd the command
+     */
+    void commandAction(Command cmd) {
+        CommandListener l = listener;
+        if (l != null) {
+            l.commandAction(cmd, this);
+        }
+    }
+
+    /**
+     * Size reported before the container is created, as when running
+     * off the device
+     */
+    private static final int DEFAULT_WIDTH = 240;
+    private static final int DEFAULT_HEIGHT = 320;
+
+    /**
+     * Returns the Android display the MIDlet is shown on, or
+     * <code>null</code> before the container is created. There is no
+     * title, ticker or command area, every <code>Displayable</code>
+     * takes the whole view frames are presented to; its size is only
+     * known once the view is laid out, until then the size of the
+     * display is the closest bound.
+     */
+    private static android.view.Display getScreen() {
+        MIDletContainer container = MIDletContainer.getMIDletContainerInstance();
+        if (container == null) {
+            return null;
+        }
+        return container.getWindowManager().getDefaultDisplay();
+    }
+
     private String title;
     private Ticker ticker;
 
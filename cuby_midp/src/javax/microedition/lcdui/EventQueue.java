@@ -0,0 +1,307 @@
+package javax.microedition.lcdui;
+
+import java.util.Arrays;
+
+import com.cuby.lcdui.DisplayAccess;
+
+/**
+ * The events of a <code>Display</code>, delivered one at a time and in
+ * the order they were posted by a thread of the queue's own. Input
+ * from the platform, <code>callSerially</code> calls and repaint
+ * requests all go through the queue, which gives the ordering MIDP
+ * asks for: a repaint requested before a <code>callSerially</code> call
+ * is serviced before the runnable is run.
+ *
+ * <p>Events are kept in a ring of slots allocated up front, key and
+ * pointer events in primitive fields only, so that posting them
+ * allocates nothing. The ring doubles when it fills up rather than
+ * drop or block on input.</p>
+ *
+ * <p>A pointer drag posted while the previous event still waiting is
+ * also a drag is merged into it: the waiting event takes the new
+ * location and keeps its place, so a slow application sees the latest
+ * location rather than every step of the way. Presses and releases are
+ * never merged, and no event is moved past another.</p>
+ *
+ * <p>The queue keeps its depth, the deepest it got, the number of drags
+ * merged, and the latency from posting to dispatching of the last
+ * <code>LATENCY_HISTORY</code> events.</p>
+ */
+final class EventQueue implements Runnable {
+
+    /** Event kinds */
+    static final int KEY = 1;
+    static final int POINTER = 2;
+    static final int COMMAND = 3;
+    static final int CALL = 4;
+    static final int REPAINT = 5;
+
+    /** Number of events the latency percentiles cover */
+    static final int LATENCY_HISTORY = 128;
+
+    /**
+     * Creates the queue of a display. The thread is started with the
+     * first event.
+     *
+     * @param display the display the events are delivered to
+     */
+    EventQueue(Display display) {
+        this.display = display;
+    }
+
+    /**
+     * Posts an event.
+     *
+     * @param kind the kind of event
+     * @param a the first value of the event
+     * @param b the second value of the event
+     * @param c the third value of the event
+     * @param ref the object of the event, <code>null</code> for key and
+     * pointer events
+     */
+    synchronized void post(int kind, int a, int b, int c, Object ref) {
+        if (kind == POINTER && a == DisplayAccess.POINTER_DRAGGED
+            && count > 0) {
+            int last = (head + count - 1) & (kinds.length - 1);
+            if (kinds[last] == POINTER
+                && values[last * 3] == DisplayAccess.POINTER_DRAGGED) {
+                // the waiting drag moves on to the new location; it
+                // keeps its posting time, so the latency still counts
+                // from the first drag merged
+                values[last * 3 + 1] = b;
+                values[last * 3 + 2] = c;
+                coalesced++;
+                return;
+            }
+        }
+
+        if (count == kinds.length) {
+            grow();
+        }
+
+        int i = (head + count) & (kinds.length - 1);
+        kinds[i] = kind;
+        values[i * 3] = a;
+        values[i * 3 + 1] = b;
+        values[i * 3 + 2] = c;
+        refs[i] = ref;
+        postTimes[i] = System.nanoTime();
+        count++;
+        posted++;
+        if (count > maxDepth) {
+            maxDepth = count;
+        }
+
+        if (thread == null) {
+            thread = new Thread(this, "Display events");
+            thread.setDaemon(true);
+            thread.start();
+        } else if (count == 1) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Tells whether the calling thread is the one delivering events.
+     *
+     * @return <code>true</code> if called from the event thread
+     */
+    boolean isDispatchThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Waits until every event posted so far has been delivered. Returns
+     * at once on the event thread, which cannot wait for itself.
+     */
+    void waitForEvents() {
+        if (isDispatchThread()) {
+            return;
+        }
+
+        synchronized (this) {
+            long target = posted;
+            waiting++;
+            try {
+                while (dispatched < target) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiting--;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of events waiting to be delivered.
+     *
+     * @return the depth of the queue
+     */
+    synchronized int getDepth() {
+        return count;
+    }
+
+    /**
+     * Returns the largest number of events waiting at any one time
+     * since the statistics were reset.
+     *
+     * @return the deepest the queue got
+     */
+    synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the number of pointer drags merged into a drag still
+     * waiting since the statistics were reset.
+     *
+     * @return the number of drags merged
+     */
+    synchronized long getCoalescedDrags() {
+        return coalesced;
+    }
+
+    /**
+     * Gets a percentile of the time the last events waited between
+     * being posted and being delivered.
+     *
+     * @param percentile the percentile, from <code>0</code> to
+     * <code>100</code>
+     * @return the latency, in microseconds, or <code>0</code> if no
+     * event was delivered yet
+     */
+    synchronized int getLatency(int percentile) {
+        int n = (int)Math.min(delivered, LATENCY_HISTORY);
+        if (n == 0) {
+            return 0;
+        }
+        System.arraycopy(latencies, 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        return sorted[(percentile * (n - 1) + 50) / 100];
+    }
+
+    /**
+     * Clears the statistics.
+     */
+    synchronized void resetStats() {
+        maxDepth = count;
+        delivered = 0;
+        coalesced = 0;
+    }
+
+    /**
+     * Delivers the events as they come. Called by the event thread.
+     */
+    public void run() {
+        int[] v = new int[3];
+        for (;;) {
+            int kind;
+            Object ref;
+            synchronized (this) {
+                while (count == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // the queue lives as long as its display
+                    }
+                }
+
+                int i = head;
+                kind = kinds[i];
+                v[0] = values[i * 3];
+                v[1] = values[i * 3 + 1];
+                v[2] = values[i * 3 + 2];
+                ref = refs[i];
+                refs[i] = null;
+                latencies[(int)(delivered % LATENCY_HISTORY)] =
+                    (int)Math.min((System.nanoTime() - postTimes[i]) / 1000,
+                                  Integer.MAX_VALUE);
+                delivered++;
+                head = (i + 1) & (kinds.length - 1);
+                count--;
+            }
+
+            try {
+                display.dispatch(kind, v[0], v[1], v[2], ref);
+            } catch (Throwable t) {
+                // an exception thrown by the application must not
+                // stop the delivery of later events
+                t.printStackTrace();
+            }
+
+            synchronized (this) {
+                dispatched++;
+                if (waiting > 0) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    // private implementation //
+
+    /** Number of slots the ring starts with, a power of two */
+    private static final int INITIAL_SLOTS = 64;
+
+    /** the display the events are delivered to */
+    private final Display display;
+
+    /** the thread delivering the events, <code>null</code> until needed */
+    private Thread thread; // = null;
+
+    /**
+     * The slots of the ring: the kind of each event, its three values,
+     * its object and the time it was posted
+     */
+    private int[] kinds = new int[INITIAL_SLOTS];
+    private int[] values = new int[INITIAL_SLOTS * 3];
+    private Object[] refs = new Object[INITIAL_SLOTS];
+    private long[] postTimes = new long[INITIAL_SLOTS];
+
+    /** the slot of the oldest event and the number of events */
+    private int head, count; // = 0;
+
+    /** events posted and delivered since the queue was created */
+    private long posted, dispatched; // = 0;
+
+    /** number of threads in <code>waitForEvents</code> */
+    private int waiting; // = 0;
+
+    /** statistics since the last reset */
+    private int maxDepth; // = 0;
+    private long delivered, coalesced; // = 0;
+
+    /**
+     * Latencies of the last events in microseconds, in a ring indexed
+     * by <code>delivered</code>
+     */
+    private final int[] latencies = new int[LATENCY_HISTORY];
+
+    /** scratch space for the percentiles */
+    private final int[] sorted = new int[LATENCY_HISTORY];
+
+    /**
+     * Doubles the slots, moving the events to the start.
+     */
+    private void grow() {
+        int n = kinds.length;
+        int[] newKinds = new int[n * 2];
+        int[] newValues = new int[n * 6];
+        Object[] newRefs = new Object[n * 2];
+        long[] newTimes = new long[n * 2];
+        for (int k = 0; k < count; k++) {
+            int i = (head + k) & (n - 1);
+            newKinds[k] = kinds[i];
+            System.arraycopy(values, i * 3, newValues, k * 3, 3);
+            newRefs[k] = refs[i];
+            newTimes[k] = postTimes[i];
+        }
+        kinds = newKinds;
+        values = newValues;
+        refs = newRefs;
+        postTimes = newTimes;
+        head = 0;
+    }
+}
@@ -1,6 +1,8 @@
 
 package javax.microedition.lcdui;
 
+import javax.microedition.lcdui.game.Sprite;
+
 /**
  * Provides simple 2D geometric rendering capability.
  *
@@ -1308,8 +1310,16 @@ public class Graphics {
      * @throws NullPointerException if <code>img</code> is <code>null</code>
      * @see Image
      */
-    public void drawImage(Image img, int x, int y, int anchor) {
+    public synchronized void drawImage(Image img, int x, int y, int anchor) {
+        int w = img.getWidth(); // throws NPE if img is null
+        int h = img.getHeight();
+
+        if (!checkImageAnchor(anchor)) {
+            throw new IllegalArgumentException();
+        }
 
+        blit(img, 0, 0, w, h, Sprite.TRANS_NONE,
+             anchorX(x, w, anchor), anchorY(y, h, anchor));
     }
 
     /**
@@ -1414,7 +1424,85 @@ public class Graphics {
                                   int transform,
                                   int x_dest, int y_dest, 
                                   int anchor) {
-     
+        // throws NPE if src is null
+        if (src == img || (transform & Image.INVALID_TRANSFORM_BITS) != 0
+            || !checkImageAnchor(anchor)) {
+            throw new IllegalArgumentException();
+        }
+
+        if (x_src < 0 || y_src < 0 ||
+            x_src + width > src.getWidth() ||
+            y_src + height > src.getHeight()) {
+            throw new IllegalArgumentException();
+        }
+
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        int w, h;
+        if ((transform & Image.TRANSFORM_SWAP_AXIS) != 0) {
+            w = height;
+            h = width;
+        } else {
+            w = width;
+            h = height;
+        }
+
+        synchronized (this) {
+            blit(src, x_src, y_src, width, height, transform,
+                 anchorX(x_dest, w, anchor), anchorY(y_dest, h, anchor));
+        }
+    }
+
+    /**
+     * Renders a batch of regions of one image with one transform. Each
+     * region takes six elements of <code>regions</code>: the location
+     * and size of the region in <code>src</code> and the top-left corner
+     * of the transformed region in the destination. The checks, the
+     * choice of copy loop and the destination setup are done once for
+     * the whole batch.
+     *
+     * @param src the source image
+     * @param transform the transform to apply to every region
+     * @param regions the regions, six elements each
+     * @param count the number of regions
+     * @throws IllegalArgumentException if <code>src</code> is the
+     * destination of this <code>Graphics</code> object, if the transform
+     * is invalid or if a region exceeds the bounds of <code>src</code>;
+     * nothing is drawn then
+     */
+    void drawRegions(Image src, int transform, int[] regions, int count) {
+        // throws NPE if src is null
+        if (src == img || (transform & Image.INVALID_TRANSFORM_BITS) != 0) {
+            throw new IllegalArgumentException();
+        }
+
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+        int end = count * 6;
+        for (int i = 0; i < end; i += 6) {
+            int sx = regions[i];
+            int sy = regions[i + 1];
+            if (sx < 0 || sy < 0 || sx + regions[i + 2] > srcWidth
+                || sy + regions[i + 3] > srcHeight) {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        int mode = blitMode(src, transform);
+        synchronized (this) {
+            if (img == null) {
+                // no pixel store behind screen graphics
+                return;
+            }
+
+            for (int i = 0; i < end; i += 6) {
+                blitRegion(src, regions[i], regions[i + 1],
+                           regions[i + 2], regions[i + 3], transform,
+                           regions[i + 4], regions[i + 5], mode);
+            }
+        }
     }
 
     /**
@@ -1858,4 +1946,276 @@ public class Graphics {
      */
     private native int getPixel(int rgb, int gray, boolean isGray);
 
+    /**
+     * Checks an anchor for drawing an image, <code>BASELINE</code>
+     * is not allowed.
+     *
+     * @param anchor the anchor to check
+     * @return <code>true</code> if the anchor is legal
+     */
+    private static boolean checkImageAnchor(int anchor) {
+        if (anchor == 0) {
+            return true;
+        }
+
+        if ((anchor & ~(LEFT | HCENTER | RIGHT | TOP | VCENTER | BOTTOM))
+                != 0) {
+            return false;
+        }
+
+        int h = anchor & (LEFT | HCENTER | RIGHT);
+        int v = anchor & (TOP | VCENTER | BOTTOM);
+        return (h == 0 || h == LEFT || h == HCENTER || h == RIGHT)
+            && (v == 0 || v == TOP || v == VCENTER || v == BOTTOM);
+    }
+
+    /**
+     * Returns the left edge of an area of width <code>w</code>
+     * anchored at <code>x</code>.
+     */
+    private static int anchorX(int x, int w, int anchor) {
+        if ((anchor & HCENTER) != 0) {
+            return x - (w >> 1);
+        } else if ((anchor & RIGHT) != 0) {
+            return x - w;
+        }
+        return x;
+    }
+
+    /**
+     * Returns the top edge of an area of height <code>h</code>
+     * anchored at <code>y</code>.
+     */
+    private static int anchorY(int y, int h, int anchor) {
+        if ((anchor & VCENTER) != 0) {
+            return y - (h >> 1);
+        } else if ((anchor & BOTTOM) != 0) {
+            return y - h;
+        }
+        return y;
+    }
+
+    /** Copy loops chosen by <code>blitMode</code> */
+    private static final int BLIT_COPY = 0;
+    private static final int BLIT_SPANS = 1;
+    private static final int BLIT_ALPHA = 2;
+
+    /**
+     * Chooses how regions of an image are rendered with a transform.
+     * Opaque images are copied row by row, keyed images copy only the
+     * opaque runs recorded by <code>Image.analyzeOpacity</code> and
+     * only translucent images are composited pixel by pixel.
+     *
+     * @param src the source image
+     * @param transform the transform to apply to the regions
+     * @return one of <code>BLIT_COPY</code>, <code>BLIT_SPANS</code> or
+     * <code>BLIT_ALPHA</code>
+     */
+    private static int blitMode(Image src, int transform) {
+        if (src.opacity == Image.OPAQUE) {
+            return BLIT_COPY;
+        } else if (transform == Sprite.TRANS_NONE && src.base.spans != null) {
+            return BLIT_SPANS;
+        }
+        return BLIT_ALPHA;
+    }
+
+    /**
+     * Renders a region of <code>src</code> with its transformed top-left
+     * corner at <code>(x, y)</code>, clipped to the current clip.
+     * Arguments must have been checked by the caller.
+     *
+     * @param src the source image
+     * @param sx the x coordinate of the region within <code>src</code>
+     * @param sy the y coordinate of the region within <code>src</code>
+     * @param w the width of the region
+     * @param h the height of the region
+     * @param transform the transform to apply to the region
+     * @param x the left edge of the destination, in translated coordinates
+     * @param y the top edge of the destination, in translated coordinates
+     */
+    private void blit(Image src, int sx, int sy, int w, int h,
+                      int transform, int x, int y) {
+        if (img == null) {
+            // no pixel store behind screen graphics
+            return;
+        }
+        blitRegion(src, sx, sy, w, h, transform, x, y,
+                   blitMode(src, transform));
+    }
+
+    /**
+     * Renders a region of <code>src</code> like <code>blit</code>, with
+     * the copy loop already chosen. There must be a pixel store behind
+     * this <code>Graphics</code> object.
+     *
+     * @param src the source image
+     * @param sx the x coordinate of the region within <code>src</code>
+     * @param sy the y coordinate of the region within <code>src</code>
+     * @param w the width of the region
+     * @param h the height of the region
+     * @param transform the transform to apply to the region
+     * @param x the left edge of the destination, in translated coordinates
+     * @param y the top edge of the destination, in translated coordinates
+     * @param mode the copy loop, as returned by <code>blitMode</code>
+     */
+    private void blitRegion(Image src, int sx, int sy, int w, int h,
+                            int transform, int x, int y, int mode) {
+        boolean swap = (transform & Image.TRANSFORM_SWAP_AXIS) != 0;
+
+        // destination area, clipped
+        int x1 = x + transX;
+        int y1 = y + transY;
+        int x2 = x1 + (swap ? h : w);
+        int y2 = y1 + (swap ? w : h);
+        int cx1 = x1 > clipX1 ? x1 : clipX1;
+        int cy1 = y1 > clipY1 ? y1 : clipY1;
+        int cx2 = x2 < clipX2 ? x2 : clipX2;
+        int cy2 = y2 < clipY2 ? y2 : clipY2;
+        if (cx1 >= cx2 || cy1 >= cy2) {
+            return;
+        }
+
+        // the part of the source region that lands inside the clip
+        int ux, uy, uw, uh;
+        if (swap) {
+            ux = cy1 - y1;
+            uw = cy2 - cy1;
+            uy = cx1 - x1;
+            uh = cx2 - cx1;
+        } else {
+            ux = cx1 - x1;
+            uw = cx2 - cx1;
+            uy = cy1 - y1;
+            uh = cy2 - cy1;
+        }
+        sx += ((transform & 2) != 0) ? w - ux - uw : ux;
+        sy += ((transform & 1) != 0) ? h - uy - uh : uy;
+
+        int[] dst = img.pixels;
+        int dstScan = img.scanlength;
+        int dstOffset = img.offset + cy1 * dstScan + cx1;
+
+        switch (mode) {
+        case BLIT_COPY:
+            Image.transformRegion(src.pixels,
+                                  src.offset + sy * src.scanlength + sx,
+                                  src.scanlength, uw, uh, transform,
+                                  dst, dstOffset, dstScan);
+            break;
+        case BLIT_SPANS:
+            blitSpans(src.base, src.baseX + sx, src.baseY + sy, uw, uh,
+                      dst, dstOffset, dstScan);
+            break;
+        default:
+            blitAlpha(src.pixels, src.offset + sy * src.scanlength + sx,
+                      src.scanlength, uw, uh, transform,
+                      dst, dstOffset, dstScan);
+            break;
+        }
+    }
+
+    /**
+     * Copies the opaque runs of a region of a keyed image.
+     *
+     * @param base the keyed base image holding the runs
+     * @param bx the x coordinate of the region within <code>base</code>
+     * @param by the y coordinate of the region within <code>base</code>
+     * @param w the width of the region
+     * @param h the height of the region
+     * @param dst the destination pixel store
+     * @param dstOffset index of the top-left destination pixel
+     * @param dstScan distance between vertically adjacent destination pixels
+     */
+    private static void blitSpans(Image base, int bx, int by, int w, int h,
+                                  int[] dst, int dstOffset, int dstScan) {
+        int[] src = base.pixels;
+        int[] spans = base.spans;
+        int[] spanRows = base.spanRows;
+        int srcScan = base.scanlength;
+        int srcRow = base.offset + by * srcScan;
+        int bx2 = bx + w;
+
+        for (int row = by, end = by + h; row < end; row++) {
+            for (int i = spanRows[row], last = spanRows[row + 1];
+                 i < last; i += 2) {
+                int start = spans[i];
+                int stop = spans[i + 1];
+                if (stop <= bx) {
+                    continue;
+                }
+                if (start >= bx2) {
+                    break;
+                }
+                if (start < bx) {
+                    start = bx;
+                }
+                if (stop > bx2) {
+                    stop = bx2;
+                }
+                System.arraycopy(src, srcRow + start,
+                                 dst, dstOffset + start - bx, stop - start);
+            }
+            srcRow += srcScan;
+            dstOffset += dstScan;
+        }
+    }
+
+    /**
+     * Composites a region of pixels with transparency over an opaque
+     * destination, applying <code>transform</code> the same way as
+     * <code>Image.transformRegion</code>.
+     */
+    private static void blitAlpha(int[] src, int srcOffset, int srcScan,
+                                  int w, int h, int transform,
+                                  int[] dst, int dstOffset, int dstScan) {
+        int xStep, yStep;
+        int dx = 0, dy = 0;
+        if ((transform & Image.TRANSFORM_SWAP_AXIS) != 0) {
+            xStep = dstScan;
+            yStep = 1;
+            if ((transform & 2) != 0) {
+                xStep = -xStep;
+                dy = w - 1;
+            }
+            if ((transform & 1) != 0) {
+                yStep = -yStep;
+                dx = h - 1;
+            }
+        } else {
+            xStep = 1;
+            yStep = dstScan;
+            if ((transform & 2) != 0) {
+                xStep = -xStep;
+                dx = w - 1;
+            }
+            if ((transform & 1) != 0) {
+                yStep = -yStep;
+                dy = h - 1;
+            }
+        }
+
+        int dstRow = dstOffset + dy * dstScan + dx;
+        for (int row = 0; row < h; row++) {
+            int d = dstRow;
+            for (int s = srcOffset, end = s + w; s < end; s++, d += xStep) {
+                int p = src[s];
+                int a = p >>> 24;
+                if (a == 0xff) {
+                    dst[d] = p;
+                } else if (a != 0) {
+                    int q = dst[d];
+                    int na = 0xff - a;
+                    dst[d] = 0xff000000
+                        | ((((p & 0xff00ff) * a + (q & 0xff00ff) * na) >>> 8)
+                           & 0xff00ff)
+                        | ((((p & 0xff00) * a + (q & 0xff00) * na) >>> 8)
+                           & 0xff00);
+                }
+            }
+            srcOffset += srcScan;
+            dstRow += yStep;
+        }
+    }
+
 } // class Graphics
@@ -0,0 +1,58 @@
+package javax.microedition.lcdui;
+
+import com.cuby.lcdui.GraphicsAccess;
+
+/**
+ * Implementation of <code>GraphicsAccess</code>, registered by
+ * <code>Image</code>.
+ */
+final class GraphicsAccessImpl extends GraphicsAccess {
+
+    public Image createRGBImage(int[] rgb, int width, int height,
+                                boolean processAlpha) {
+        return Image.createRGBImage(rgb, width, height, processAlpha, false);
+    }
+
+    public Image decodeImage(byte[] data, int offset, int length,
+                             int targetWidth, int targetHeight) {
+        return ImageDecoder.decode(data, offset, length,
+                                   targetWidth, targetHeight);
+    }
+
+    public int packImages(Image[] images) {
+        return ImageAtlas.pack(images);
+    }
+
+    public boolean isOpaque(Image image) {
+        return image.opacity == Image.OPAQUE;
+    }
+
+    public void pixelsChanged(Image image) {
+        image.analyzeOpacity(Image.TRANSLUCENT);
+        image.dropTransformedRegions();
+    }
+
+    public void setOpaque(Image image, boolean opaque) {
+        image.opacity = opaque ? Image.OPAQUE : Image.TRANSLUCENT;
+        image.spans = null;
+        image.spanRows = null;
+    }
+
+    public void resetGraphics(Graphics g) {
+        g.reset();
+    }
+
+    public void drawRegions(Graphics g, Image src, int transform,
+                            int[] regions, int count) {
+        g.drawRegions(src, transform, regions, count);
+    }
+
+    public Image getTransformedRegion(Image image, int x, int y,
+                                      int w, int h, int transform) {
+        return image.getCachedRegion(x, y, w, h, transform);
+    }
+
+    public int getRegionGeneration(Image image) {
+        return image.base.regionGeneration;
+    }
+}
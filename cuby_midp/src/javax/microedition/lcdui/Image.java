@@ -3,8 +3,16 @@ package javax.microedition.lcdui;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Vector;
+import java.lang.ref.WeakReference;
 import javax.microedition.lcdui.game.Sprite;
 
+import com.cuby.lcdui.GraphicsAccess;
+import com.cuby.lcdui.ImageMemory;
+import com.cuby.lcdui.ImagePreloader;
+
 
 /**
  * The <code>Image</code> class is used to hold graphical image
@@ -237,6 +245,41 @@ public class Image {
      */
     static final int TRANSFORM_SWAP_AXIS = 4;
 
+    /**
+     * Opacity class of an image without any transparent pixels
+     */
+    static final int OPAQUE = 0;
+
+    /**
+     * Opacity class of an image whose pixels are either fully
+     * transparent or fully opaque
+     */
+    static final int KEYED = 1;
+
+    /**
+     * Opacity class of an image with partially transparent pixels
+     */
+    static final int TRANSLUCENT = 2;
+
+    /**
+     * Keyed images whose opaque runs are on average shorter than this
+     * are not given spans, testing every pixel is as fast for them
+     */
+    private static final int MIN_AVERAGE_SPAN = 4;
+
+    /**
+     * The transformed regions of all images, evicted as one cache
+     */
+    private static final RegionCache TRANSFORMED_REGIONS = new RegionCache();
+
+    /**
+     * Class initializer.
+     */
+    static {
+        GraphicsAccess.register(new GraphicsAccessImpl());
+        ImageMemory.register(TRANSFORMED_REGIONS);
+    }
+
     /**
      * Creates a new, mutable image for off-screen drawing. Every pixel
      * within the newly created image is white.  The width and height of the
@@ -254,7 +297,12 @@ public class Image {
             throw new IllegalArgumentException();
         }
 
-        return null;
+        int[] pixels = allocatePixels(width * height);
+        for (int i = pixels.length; --i >= 0; ) {
+            pixels[i] = 0xFFFFFFFF;
+        }
+
+        return new Image(pixels, 0, width, width, height, true).account();
     }
 
     /**
@@ -283,7 +331,17 @@ public class Image {
      * @throws NullPointerException if <code>source</code> is <code>null</code>
      */
     public static Image createImage(Image source) {
-            return null;
+        if (!source.mutable) { // throws NPE if source is null
+            return source;
+        }
+
+        int[] pixels = allocatePixels(source.width * source.height);
+        transformRegion(source.pixels, source.offset, source.scanlength,
+                        source.width, source.height, Sprite.TRANS_NONE,
+                        pixels, 0, source.width);
+
+        return new Image(pixels, 0, source.width,
+                         source.width, source.height, false).account();
     }
 
     /**
@@ -306,7 +364,26 @@ public class Image {
      */
     public static Image createImage(java.lang.String name)
         throws java.io.IOException {
-        return null;
+        // throws NPE if name is null
+        Image image = ImagePreloader.take(name);
+        if (image != null) {
+            return image;
+        }
+
+        if (!name.startsWith("/")) {
+            name = "/" + name;
+        }
+
+        InputStream stream = Image.class.getResourceAsStream(name);
+        if (stream == null) {
+            throw new java.io.IOException();
+        }
+
+        try {
+            return createImage(stream);
+        } finally {
+            stream.close();
+        }
     }
 
     /**
@@ -356,7 +433,7 @@ public class Image {
             throw new ArrayIndexOutOfBoundsException();
         }
 
-        return null;
+        return ImageDecoder.decode(imageData, imageOffset, imageLength);
     }
 
     /**
@@ -450,9 +527,32 @@ public class Image {
             && width == image.getWidth() && height == image.getHeight()
             && transform == Sprite.TRANS_NONE) {
             return createImage(image);
-        } else {
-            return null;
         }
+
+        if (image.mutable) {
+            // the source may still be rendered to, so the region
+            // has to be snapshot into a store of its own
+            return createTransformedImage(image.pixels, 
+                    image.offset + y * image.scanlength + x,
+                    image.scanlength, width, height, transform);
+        }
+
+        if (transform == Sprite.TRANS_NONE) {
+            // immutable pixels never change, so the new image can
+            // simply be a view onto the store of the source image
+            Image view = new Image(image.pixels, 
+                                   image.offset + y * image.scanlength + x,
+                                   image.scanlength, width, height, false);
+            view.base = image.base;
+            view.baseX = image.baseX + x;
+            view.baseY = image.baseY + y;
+            view.opacity = image.opacity;
+            return view;
+        }
+
+        return image.base.getTransformedRegion(image.baseX + x,
+                                               image.baseY + y,
+                                               width, height, transform);
     }
 
     /**
@@ -479,7 +579,7 @@ public class Image {
         }
 
         try {
-            return null;
+            return ImageDecoder.decode(stream);
         } catch (IllegalArgumentException e) {
             throw new java.io.IOException();
         }
@@ -561,7 +661,135 @@ public class Image {
             throw new ArrayIndexOutOfBoundsException();
         }
 
-        return null;
+        return createRGBImage(rgb, width, height, processAlpha, true);
+    }
+
+    /**
+     * Obtains ARGB pixel data from the specified region of this image and
+     * stores it in the provided array of integers.  Each pixel value is
+     * stored in <code>0xAARRGGBB</code> format, where the high-order
+     * byte contains the
+     * alpha channel and the remaining bytes contain color components for
+     * red, green and blue, respectively.  The alpha channel specifies the
+     * opacity of the pixel, where a value of <code>0x00</code>
+     * represents a pixel that
+     * is fully transparent and a value of <code>0xFF</code>
+     * represents a fully opaque
+     * pixel.
+     *
+     * <p>The <code>scanlength</code> specifies the relative offset within
+     * the array between the corresponding pixels of consecutive rows.  Any
+     * value for <code>scanlength</code> is acceptable (even negative
+     * values) provided that all resulting references are within the
+     * bounds of the <code>rgbData</code> array. The value of
+     * <code>scanlength</code> must be at least as large as the value of
+     * <code>width</code>.</p>
+     *
+     * <p>Consider <code>P(a,b)</code> to be the value of the pixel
+     * located at column <code>a</code> and row <code>b</code> of the
+     * Image, where rows and columns are numbered downward from the
+     * top starting at zero, and columns are numbered rightward from
+     * the left starting at zero. This operation can then be defined
+     * as:</p>
+     *
+     * <TABLE BORDER="2">
+     * <TR>
+     * <TD ROWSPAN="1" COLSPAN="1">
+     *    <pre><code>
+     *    rgbData[offset + (a - x) + (b - y) * scanlength] = P(a, b);</code></pre>
+     * </TD>
+     * </TR>
+     * </TABLE>
+     * <p>for</p>
+     *
+     * <TABLE BORDER="2">
+     * <TR>
+     * <TD ROWSPAN="1" COLSPAN="1">
+     *    <pre><code>
+     *     x &lt;= a &lt; x + width
+     *     y &lt;= b &lt; y + height    </code></pre>
+     * </TD>
+     * </TR>
+     * </TABLE>
+     *
+     * <p>The source rectangle is required to not exceed the bounds of
+     * the image.  This means: </p>
+     * <TABLE BORDER="2">
+     * <TR>
+     * <TD ROWSPAN="1" COLSPAN="1">
+     *    <pre><code>
+     *   x &gt;= 0
+     *   y &gt;= 0
+     *   x + width &lt;= image width
+     *   y + height &lt;= image height    </code></pre>
+     * </TD>
+     * </TR>
+     * </TABLE>
+     *
+     * <p>If any of these conditions is not met an
+     * <code>IllegalArgumentException</code> is thrown.  Otherwise, in
+     * cases where <code>width &lt;= 0</code> or <code>height &lt;= 0</code>,
+     * no exception is thrown, and no pixel data is copied to
+     * <code>rgbData</code>.</p>
+     *
+     * @param rgbData an array of integers in which the ARGB pixel data is
+     * stored
+     * @param offset the index into the array where the first ARGB value
+     * is stored
+     * @param scanlength the relative offset in the array between
+     * corresponding pixels in consecutive rows of the region
+     * @param x the x-coordinate of the upper left corner of the region
+     * @param y the y-coordinate of the upper left corner of the region
+     * @param width the width of the region
+     * @param height the height of the region
+     *
+     * @throws ArrayIndexOutOfBoundsException if the requested operation
+     * would attempt to access an element in the <code>rgbData</code>
+     * array whose index is either
+     * negative or beyond its length (the contents of the array are
+     * unchanged)
+     *
+     * @throws IllegalArgumentException if the area being retrieved
+     * exceeds the bounds of the source image
+     *
+     * @throws IllegalArgumentException if the absolute value of
+     * <code>scanlength</code> is less than <code>width</code>
+     *
+     * @throws NullPointerException if <code>rgbData</code> is
+     * <code>null</code>
+     *
+     * @since MIDP 2.0
+     */
+    public void getRGB(int[] rgbData, int offset, int scanlength,
+                       int x, int y, int width, int height) {
+        if (rgbData == null) {
+            throw new NullPointerException();
+        }
+
+        if (x < 0 || y < 0 ||
+            x + width > this.width || y + height > this.height ||
+            (scanlength < 0 ? -scanlength : scanlength) < width) {
+            throw new IllegalArgumentException();
+        }
+
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        // the first and the last row must both fit the array
+        int last = offset + (height - 1) * scanlength;
+        if (offset < 0 || last < 0 || 
+            offset + width > rgbData.length || last + width > rgbData.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        // the store holds ARGB already, so every row is a single copy
+        int src = this.offset + y * this.scanlength + x;
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(pixels, src, rgbData, offset, width);
+            src += this.scanlength;
+            offset += scanlength;
+        }
     }
 
     /**
@@ -595,8 +823,11 @@ public class Image {
      * @throws IllegalStateException if the image is immutable
      */
     public Graphics getGraphics() {
+        if (!mutable) {
             throw new IllegalStateException();
+        }
 
+        return Graphics.getImageGraphics(this);
     }
 
     /**
@@ -605,7 +836,7 @@ public class Image {
      * @return width of the image
      */
     public int getWidth() {
-        return 0;
+        return width;
     }
 
     /**
@@ -614,7 +845,7 @@ public class Image {
      * @return height of the image
      */
     public int getHeight() {
-        return 0;
+        return height;
     }
 
     /**
@@ -626,12 +857,457 @@ public class Image {
      * <code>false</code> otherwise
      */
     public boolean isMutable() {
-        return false;
+        return mutable;
     }
 
+    // private implementation //
 
+    /**
+     * ARGB pixel store of this image. Sub-region images of an immutable
+     * image share the store of the image they were created from, and
+     * packed images share an atlas page.
+     */
+    int[] pixels;
+
+    /**
+     * Index of the top-left pixel of this image within <code>pixels</code>
+     */
+    int offset;
+
+    /**
+     * Distance, in array elements, between vertically adjacent pixels
+     */
+    int scanlength;
 
+    /**
+     * The image this image is a sub-region view of, <code>this</code>
+     * otherwise. Spans and transformed regions are kept by base images.
+     */
+    Image base;
 
+    /**
+     * Location of this image within <code>base</code>
+     */
+    int baseX, baseY; // = 0;
+
+    private int width, height;
 
+    private boolean mutable;
 
+    /**
+     * One of <code>OPAQUE</code>, <code>KEYED</code> or
+     * <code>TRANSLUCENT</code>. Views share the class of their base
+     * image. Mutable images are always opaque.
+     */
+    int opacity; // = OPAQUE;
+
+    /**
+     * Opaque runs of a <code>KEYED</code> image, as pairs of start and end
+     * columns. The runs of row <code>r</code> are found between
+     * <code>spans[spanRows[r]]</code> and <code>spans[spanRows[r + 1]]</code>.
+     * Both are <code>null</code> for other images and for keyed images
+     * with too many short runs.
+     */
+    int[] spans, spanRows; // = null;
+
+    /**
+     * Transformed regions materialized from this image, keyed by
+     * <code>regionKey()</code>. Only used on base images.
+     */
+    private HashMap transformedRegions; // = null;
+
+    /**
+     * Number of times the transformed regions were dropped. Only used
+     * on base images.
+     */
+    volatile int regionGeneration; // = 0;
+
+    /**
+     * Creates an image over the given pixel store.
+     *
+     * @param pixels the ARGB pixel store
+     * @param offset index of the top-left pixel within <code>pixels</code>
+     * @param scanlength distance between vertically adjacent pixels
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param mutable <code>true</code> if the image can be rendered to
+     */
+    Image(int[] pixels, int offset, int scanlength,
+          int width, int height, boolean mutable) {
+        this.pixels = pixels;
+        this.offset = offset;
+        this.scanlength = scanlength;
+        this.width = width;
+        this.height = height;
+        this.mutable = mutable;
+        this.base = this;
+    }
+
+    /**
+     * Creates an immutable image from a sequence of ARGB values.
+     * Arguments must have been checked by the caller.
+     *
+     * @param rgb an array of ARGB values that composes the image
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param processAlpha <code>false</code> if all pixels are to be
+     * made fully opaque
+     * @param copy <code>false</code> if <code>rgb</code> is handed over
+     * to the image and can become its store
+     * @return the created image
+     */
+    static Image createRGBImage(int[] rgb, int width, int height,
+                                boolean processAlpha, boolean copy) {
+        int size = width * height;
+        int[] pixels = rgb;
+        if (copy) {
+            pixels = allocatePixels(size);
+            if (processAlpha) {
+                System.arraycopy(rgb, 0, pixels, 0, size);
+            }
+        }
+
+        if (!processAlpha) {
+            // forcing the alpha byte doubles as the copy
+            for (int i = 0; i < size; i++) {
+                pixels[i] = rgb[i] | 0xff000000;
+            }
+        }
+
+        return new Image(pixels, 0, width, width, height, false).account()
+            .analyzeOpacity(processAlpha ? TRANSLUCENT : OPAQUE);
+    }
+
+    /**
+     * Returns the immutable image holding the given region of this image
+     * with <code>transform</code> applied. The region is materialized
+     * on first use and the same image is returned for subsequent requests.
+     *
+     * @param x the horizontal location of the region
+     * @param y the vertical location of the region
+     * @param w the width of the region
+     * @param h the height of the region
+     * @param transform the transform to be applied to the region
+     * @return the transformed region
+     */
+    private Image getTransformedRegion(int x, int y, int w, int h,
+                                       int transform) {
+        // coordinates above 15 bits do not fit the key, such
+        // regions are simply not cached
+        if ((x | y | w | h) > 0x7fff) {
+            return createTransformedImage(pixels, offset + y * scanlength + x,
+                                          scanlength, w, h, transform)
+                .analyzeOpacity(opacity);
+        }
+
+        Long key = Long.valueOf(regionKey(x, y, w, h, transform));
+
+        synchronized (this) {
+            if (transformedRegions != null) {
+                Image region = (Image)transformedRegions.get(key);
+                if (region != null) {
+                    return region;
+                }
+            }
+        }
+
+        // built without the lock, which eviction takes to drop the
+        // regions
+        Image region = createTransformedImage(pixels,
+                                              offset + y * scanlength + x,
+                                              scanlength, w, h, transform)
+            .analyzeOpacity(opacity);
+
+        synchronized (this) {
+            if (transformedRegions == null) {
+                transformedRegions = new HashMap();
+                TRANSFORMED_REGIONS.add(this);
+            } else {
+                // another thread may have built the region meanwhile
+                Image built = (Image)transformedRegions.get(key);
+                if (built != null) {
+                    return built;
+                }
+            }
+            transformedRegions.put(key, region);
+            return region;
+        }
+    }
+
+    /**
+     * Returns the immutable image holding the given region of this image
+     * with <code>transform</code> applied, materialized once and kept
+     * with the other transformed regions of the image. The region must
+     * lie within this image.
+     *
+     * @param x the horizontal location of the region
+     * @param y the vertical location of the region
+     * @param w the width of the region
+     * @param h the height of the region
+     * @param transform the transform to be applied to the region
+     * @return the transformed region, <code>null</code> if this image is
+     * mutable and its regions cannot be kept
+     */
+    Image getCachedRegion(int x, int y, int w, int h, int transform) {
+        if (mutable) {
+            return null;
+        }
+        return base.getTransformedRegion(baseX + x, baseY + y, w, h,
+                                         transform);
+    }
+
+    /**
+     * Drops the transformed regions materialized from this image.
+     *
+     * @return the number of bytes of pixel stores no longer referenced
+     */
+    synchronized int dropTransformedRegions() {
+        regionGeneration++;
+        if (transformedRegions == null) {
+            return 0;
+        }
+
+        int released = 0;
+        Iterator it = transformedRegions.values().iterator();
+        while (it.hasNext()) {
+            released += ((Image)it.next()).pixels.length << 2;
+        }
+        transformedRegions = null;
+        return released;
+    }
+
+    /**
+     * Allocates a pixel store, first evicting caches if the store
+     * would take the running MIDlet over its image memory budget.
+     *
+     * @param size the number of pixels
+     * @return the new store
+     */
+    static int[] allocatePixels(int size) {
+        ImageMemory.getCurrent().makeRoom(size << 2);
+        return new int[size];
+    }
+
+    /**
+     * Accounts the store of this image to the running MIDlet until the
+     * store is collected. Must only be called once per store.
+     *
+     * @return this image
+     */
+    Image account() {
+        ImageMemory.getCurrent().track(pixels, pixels.length << 2);
+        return this;
+    }
+
+    /**
+     * Classifies the pixels of this image as <code>OPAQUE</code>,
+     * <code>KEYED</code> or <code>TRANSLUCENT</code> and, for keyed
+     * images, records the opaque run of every row. Must only be called
+     * on immutable base images, before they are published.
+     *
+     * @param hint the opacity class of the image the pixels were copied
+     * from, the analysis is skipped for opaque sources
+     * @return this image
+     */
+    Image analyzeOpacity(int hint) {
+        opacity = OPAQUE;
+        spans = spanRows = null;
+        if (hint == OPAQUE) {
+            return this;
+        }
+
+        // first pass: classify and count the opaque runs
+        int runs = 0;
+        int opaquePixels = 0;
+        for (int row = 0, p = offset; row < height; 
+             row++, p += scanlength) {
+            boolean inRun = false;
+            for (int end = p + width, i = p; i < end; i++) {
+                int a = pixels[i] >>> 24;
+                if (a == 0xff) {
+                    opaquePixels++;
+                    if (!inRun) {
+                        runs++;
+                        inRun = true;
+                    }
+                } else if (a == 0) {
+                    inRun = false;
+                } else {
+                    opacity = TRANSLUCENT;
+                    return this;
+                }
+            }
+        }
+
+        if (opaquePixels == width * height) {
+            return this;
+        }
+
+        opacity = KEYED;
+        if (runs > 0 && opaquePixels / runs < MIN_AVERAGE_SPAN) {
+            return this;
+        }
+
+        // second pass: record the runs
+        int[] runTable = new int[runs * 2];
+        int[] rowTable = new int[height + 1];
+        int n = 0;
+        for (int row = 0, p = offset; row < height; 
+             row++, p += scanlength) {
+            rowTable[row] = n;
+            int start = -1;
+            for (int x = 0; x < width; x++) {
+                if ((pixels[p + x] >>> 24) != 0) {
+                    if (start < 0) {
+                        start = x;
+                    }
+                } else if (start >= 0) {
+                    runTable[n++] = start;
+                    runTable[n++] = x;
+                    start = -1;
+                }
+            }
+            if (start >= 0) {
+                runTable[n++] = start;
+                runTable[n++] = width;
+            }
+        }
+        rowTable[height] = n;
+
+        spans = runTable;
+        spanRows = rowTable;
+        return this;
+    }
+
+    /**
+     * Drops the transformed regions materialized by every image. Images
+     * holding regions are only weakly referenced.
+     */
+    private static final class RegionCache implements ImageMemory.Cache {
+        private final Vector images = new Vector();
+
+        void add(Image image) {
+            images.addElement(new WeakReference(image));
+        }
+
+        public int evict() {
+            int released = 0;
+            WeakReference[] refs;
+            synchronized (images) {
+                refs = new WeakReference[images.size()];
+                images.copyInto(refs);
+                images.removeAllElements();
+            }
+
+            for (int i = 0; i < refs.length; i++) {
+                Image image = (Image)refs[i].get();
+                if (image != null) {
+                    released += image.dropTransformedRegions();
+                }
+            }
+            return released;
+        }
+    }
+
+    /**
+     * Packs a region and a transform into a single cache key.
+     */
+    private static long regionKey(int x, int y, int w, int h, int transform) {
+        return ((long)x << 48) | ((long)y << 33) | ((long)w << 18)
+            | ((long)h << 3) | transform;
+    }
+
+    /**
+     * Creates an immutable image owning a copy of the given region
+     * with <code>transform</code> applied.
+     */
+    private static Image createTransformedImage(int[] src, int srcOffset,
+                                                int srcScan, int w, int h,
+                                                int transform) {
+        int dw, dh;
+        if ((transform & TRANSFORM_SWAP_AXIS) != 0) {
+            dw = h;
+            dh = w;
+        } else {
+            dw = w;
+            dh = h;
+        }
+
+        int[] pixels = allocatePixels(dw * dh);
+        transformRegion(src, srcOffset, srcScan, w, h, transform,
+                        pixels, 0, dw);
+
+        return new Image(pixels, 0, dw, dw, dh, false).account();
+    }
+
+    /**
+     * Copies a <code>w</code> by <code>h</code> region of pixels applying
+     * <code>transform</code>. The destination region is <code>h</code>
+     * by <code>w</code> pixels when the transform swaps the axes.
+     * The source and destination regions must not overlap.
+     *
+     * @param src the source pixel store
+     * @param srcOffset index of the top-left pixel of the source region
+     * @param srcScan distance between vertically adjacent source pixels
+     * @param w the width of the source region
+     * @param h the height of the source region
+     * @param transform one of the transforms defined in <code>Sprite</code>
+     * @param dst the destination pixel store
+     * @param dstOffset index of the top-left pixel of the destination region
+     * @param dstScan distance between vertically adjacent destination pixels
+     */
+    static void transformRegion(int[] src, int srcOffset, int srcScan,
+                                int w, int h, int transform,
+                                int[] dst, int dstOffset, int dstScan) {
+        if (transform == Sprite.TRANS_NONE) {
+            for (int row = 0; row < h; row++) {
+                System.arraycopy(src, srcOffset, dst, dstOffset, w);
+                srcOffset += srcScan;
+                dstOffset += dstScan;
+            }
+            return;
+        }
+
+        // Walk the source row by row and work out how the destination
+        // index moves for a step along a source row (xStep) and for a
+        // step down a source column (yStep). Bit 1 of the transform
+        // mirrors the source horizontally, bit 0 vertically, and
+        // TRANSFORM_SWAP_AXIS transposes the result.
+        int xStep, yStep;
+        int dx = 0, dy = 0;
+        if ((transform & TRANSFORM_SWAP_AXIS) != 0) {
+            xStep = dstScan;
+            yStep = 1;
+            if ((transform & 2) != 0) {
+                xStep = -xStep;
+                dy = w - 1;
+            }
+            if ((transform & 1) != 0) {
+                yStep = -yStep;
+                dx = h - 1;
+            }
+        } else {
+            xStep = 1;
+            yStep = dstScan;
+            if ((transform & 2) != 0) {
+                xStep = -xStep;
+                dx = w - 1;
+            }
+            if ((transform & 1) != 0) {
+                yStep = -yStep;
+                dy = h - 1;
+            }
+        }
+
+        int dstRow = dstOffset + dy * dstScan + dx;
+        for (int row = 0; row < h; row++) {
+            int s = srcOffset;
+            int d = dstRow;
+            for (int end = s + w; s < end; s++, d += xStep) {
+                dst[d] = src[s];
+            }
+            srcOffset += srcScan;
+            dstRow += yStep;
+        }
+    }
 }
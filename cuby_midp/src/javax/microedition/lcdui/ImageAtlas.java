@@ -0,0 +1,136 @@
+package javax.microedition.lcdui;
+
+import javax.microedition.lcdui.game.Sprite;
+
+import com.cuby.lcdui.ImageMemory;
+
+/**
+ * Packs small immutable images into shared atlas pages, so that many
+ * small images drawn together read from a few contiguous stores.
+ * Images are placed on shelves: rows as high as their tallest image,
+ * filled left to right, tallest images first.
+ */
+final class ImageAtlas {
+
+    /**
+     * Width of the atlas pages. Pages are only as high as their
+     * shelves, at most <code>PAGE_SIZE</code>.
+     */
+    static final int PAGE_SIZE = 256;
+
+    /**
+     * Images wider or higher than this are left alone
+     */
+    static final int MAX_PACKED_SIZE = 64;
+
+    private ImageAtlas() {
+    }
+
+    /**
+     * Replaces the small immutable images of an array with images of
+     * the same content whose pixels live in atlas pages. Mutable images,
+     * sub-region images, large images and <code>null</code> elements are
+     * left in place. The replaced images remain valid.
+     *
+     * @param images the images to pack
+     * @return the number of images packed
+     */
+    static int pack(Image[] images) {
+        int n = 0;
+        int[] order = new int[images.length];
+        for (int i = 0; i < images.length; i++) {
+            Image image = images[i];
+            if (image != null && !image.isMutable() && image.base == image
+                    && image.getWidth() <= MAX_PACKED_SIZE
+                    && image.getHeight() <= MAX_PACKED_SIZE) {
+                order[n++] = i;
+            }
+        }
+        if (n < 2) {
+            return 0; // nothing to share a page with
+        }
+
+        sortByHeight(images, order, n);
+
+        // lay the images out, starting a page whenever one is full
+        int[] px = new int[n];
+        int[] py = new int[n];
+        int[] page = new int[n];
+        int[] pageHeights = new int[n];
+        int pages = 0;
+        int shelfX = PAGE_SIZE, shelfY = 0, shelfHeight = 0;
+        for (int k = 0; k < n; k++) {
+            Image image = images[order[k]];
+            int w = image.getWidth();
+            int h = image.getHeight();
+
+            if (shelfX + w > PAGE_SIZE) {
+                // images come tallest first, so the first image of a
+                // shelf sets its height
+                shelfY += shelfHeight;
+                shelfX = 0;
+                shelfHeight = h;
+                if (pages == 0 || shelfY + h > PAGE_SIZE) {
+                    pages++;
+                    shelfY = 0;
+                }
+                pageHeights[pages - 1] = shelfY + h;
+            }
+
+            px[k] = shelfX;
+            py[k] = shelfY;
+            page[k] = pages - 1;
+            shelfX += w;
+        }
+
+        // allocate the pages and move the images in
+        int[][] stores = new int[pages][];
+        for (int p = 0; p < pages; p++) {
+            int size = PAGE_SIZE * pageHeights[p];
+            stores[p] = Image.allocatePixels(size);
+            ImageMemory.getCurrent().track(stores[p], size << 2);
+        }
+
+        for (int k = 0; k < n; k++) {
+            Image image = images[order[k]];
+            int w = image.getWidth();
+            int h = image.getHeight();
+            int[] store = stores[page[k]];
+            int offset = py[k] * PAGE_SIZE + px[k];
+
+            Image.transformRegion(image.pixels, image.offset,
+                                  image.scanlength, w, h, Sprite.TRANS_NONE,
+                                  store, offset, PAGE_SIZE);
+
+            // the opacity analysis is relative to the image, not to
+            // its store, so it carries over
+            Image packed = new Image(store, offset, PAGE_SIZE, w, h, false);
+            packed.opacity = image.opacity;
+            packed.spans = image.spans;
+            packed.spanRows = image.spanRows;
+            images[order[k]] = packed;
+        }
+
+        return n;
+    }
+
+    // private implementation //
+
+    /**
+     * Sorts the first <code>n</code> indices of <code>order</code> by
+     * decreasing height of the images they refer to. Insertion sort,
+     * batches are small.
+     */
+    private static void sortByHeight(Image[] images, int[] order, int n) {
+        for (int i = 1; i < n; i++) {
+            int index = order[i];
+            int h = images[index].getHeight();
+            int j = i;
+            while (j > 0 && images[order[j - 1]].getHeight() < h) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = index;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package javax.microedition.lcdui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes image files into the pixel store of an immutable
+ * <code>Image</code>.
+ */
+final class ImageDecoder {
+
+    /**
+     * Size of the chunks an image stream is read in
+     */
+    private static final int READ_CHUNK = 4096;
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Decodes an image file held in a byte array, scaled down while
+     * decoding if it is a JPEG file at least twice as large as the
+     * target, which costs a fraction of a full decode. Other files are
+     * decoded at full size.
+     *
+     * @param data the array holding the image file
+     * @param offset the offset of the file in the array
+     * @param length the length of the file
+     * @param targetWidth the width the image is going to be shown at
+     * @param targetHeight the height the image is going to be shown at
+     * @return the decoded, immutable image
+     * @throws IllegalArgumentException if the data cannot be decoded
+     */
+    static Image decode(byte[] data, int offset, int length,
+                        int targetWidth, int targetHeight) {
+        if (JpegDecoder.isJpeg(data, offset, length)) {
+            Image image = JpegDecoder.decode(data, offset, length,
+                                             targetWidth, targetHeight);
+            if (image != null) {
+                return image;
+            }
+        }
+        return decode(data, offset, length);
+    }
+
+    /**
+     * Decodes an image file held in a byte array, at full size.
+     *
+     * @param data the array holding the image file
+     * @param offset the offset of the file in the array
+     * @param length the length of the file
+     * @return the decoded, immutable image
+     * @throws IllegalArgumentException if the data cannot be decoded
+     */
+    static Image decode(byte[] data, int offset, int length) {
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, offset, length);
+        if (bitmap == null) {
+            throw new IllegalArgumentException();
+        }
+
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        int[] pixels = Image.allocatePixels(w * h);
+        bitmap.getPixels(pixels, 0, w, 0, 0, w, h);
+        boolean hasAlpha = bitmap.hasAlpha();
+        bitmap.recycle();
+
+        return new Image(pixels, 0, w, w, h, false).account()
+            .analyzeOpacity(hasAlpha ? Image.TRANSLUCENT : Image.OPAQUE);
+    }
+
+    /**
+     * Reads an image file to the end of a stream and decodes it.
+     *
+     * @param stream the stream to read the image file from
+     * @return the decoded, immutable image
+     * @throws IOException if the stream cannot be read
+     * @throws IllegalArgumentException if the data cannot be decoded
+     */
+    static Image decode(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(READ_CHUNK);
+        byte[] buffer = new byte[READ_CHUNK];
+        int n;
+        while ((n = stream.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+
+        byte[] data = out.toByteArray();
+        return decode(data, 0, data.length);
+    }
+}
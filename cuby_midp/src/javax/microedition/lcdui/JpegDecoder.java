@@ -0,0 +1,733 @@
+package javax.microedition.lcdui;
+
+/**
+ * Decoder for baseline JPEG files which scales the image down by 2, 4 or
+ * 8 while decoding. Scaling is done in the DCT domain: only the lowest
+ * frequencies of every block are transformed back, with a 4x4, 2x2 or
+ * 1x1 inverse DCT, so a scaled decode skips most of the dequantization
+ * and inverse transform work of a full decode. Pixels are written one
+ * MCU row at a time straight into the store of the resulting image.
+ *
+ * <p>Only sequential, Huffman coded, 8-bit files with all components in
+ * a single scan are handled. <code>decode</code> returns
+ * <code>null</code> for other files, as well as for files that would not
+ * be scaled, so that the platform decoder is used for them.</p>
+ */
+final class JpegDecoder {
+
+    /**
+     * Natural order index of each coefficient in zig-zag order
+     */
+    private static final int[] ZIGZAG = {
+         0,  1,  8, 16,  9,  2,  3, 10,
+        17, 24, 32, 25, 18, 11,  4,  5,
+        12, 19, 26, 33, 40, 48, 41, 34,
+        27, 20, 13,  6,  7, 14, 21, 28,
+        35, 42, 49, 56, 57, 50, 43, 36,
+        29, 22, 15, 23, 30, 37, 44, 51,
+        58, 59, 52, 45, 38, 31, 39, 46,
+        53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    /**
+     * Bits of precision of the inverse DCT tables
+     */
+    private static final int IDCT_BITS = 11;
+
+    /**
+     * Huffman codes up to this length are decoded with a single lookup
+     */
+    private static final int LOOKUP_BITS = 9;
+
+    /**
+     * Inverse DCT tables for block sizes 8, 4 and 2, indexed by block size.
+     * Entry <code>x * n + u</code> holds the weight of frequency
+     * <code>u</code> in output sample <code>x</code>.
+     */
+    private static final int[][] IDCT_TABLES = new int[9][];
+
+    /**
+     * Fixed point YCbCr to RGB conversion terms, indexed by chroma value
+     */
+    private static final int[] CR_R = new int[256];
+    private static final int[] CB_B = new int[256];
+    private static final int[] CR_G = new int[256];
+    private static final int[] CB_G = new int[256];
+
+    static {
+        for (int n = 2; n <= 8; n <<= 1) {
+            int[] table = new int[n * n];
+            for (int x = 0; x < n; x++) {
+                for (int u = 0; u < n; u++) {
+                    double c = (u == 0) ? Math.sqrt(0.5) : 1.0;
+                    table[x * n + u] = (int)Math.round(
+                        c * 0.5 * (1 << IDCT_BITS) *
+                        Math.cos((2 * x + 1) * u * Math.PI / (2 * n)));
+                }
+            }
+            IDCT_TABLES[n] = table;
+        }
+
+        for (int i = 0; i < 256; i++) {
+            int c = i - 128;
+            CR_R[i] = (int)Math.round(1.402 * 65536) * c;
+            CB_B[i] = (int)Math.round(1.772 * 65536) * c;
+            CR_G[i] = -(int)Math.round(0.714136 * 65536) * c;
+            CB_G[i] = -(int)Math.round(0.344136 * 65536) * c + 32768;
+        }
+    }
+
+    /**
+     * Checks whether the data starts with a JPEG start of image marker.
+     *
+     * @param data the array holding the image file
+     * @param offset the offset of the file in the array
+     * @param length the length of the file
+     * @return <code>true</code> if the data looks like a JPEG file
+     */
+    static boolean isJpeg(byte[] data, int offset, int length) {
+        return length > 2 && (data[offset] & 0xff) == 0xff
+            && (data[offset + 1] & 0xff) == 0xd8;
+    }
+
+    /**
+     * Decodes a JPEG file scaled down by the largest of 2, 4 or 8 that
+     * keeps the result at least as large as the target, in either
+     * orientation.
+     *
+     * @param data the array holding the image file
+     * @param offset the offset of the file in the array
+     * @param length the length of the file
+     * @param targetWidth the width the image is going to be shown at
+     * @param targetHeight the height the image is going to be shown at
+     * @return the decoded, immutable image or <code>null</code> if the
+     * file is not scaled or not supported by this decoder
+     * @throws IllegalArgumentException if the data is corrupt
+     */
+    static Image decode(byte[] data, int offset, int length,
+                        int targetWidth, int targetHeight) {
+        try {
+            JpegDecoder decoder = new JpegDecoder(data, offset, length);
+            if (!decoder.readHeaders()) {
+                return null;
+            }
+
+            int scale = chooseScale(decoder.width, decoder.height,
+                                    targetWidth, targetHeight);
+            if (scale == 1) {
+                return null;
+            }
+
+            return decoder.decodeScan(scale);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // truncated or corrupt file
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Returns the largest power of two up to 8 that the image can be
+     * divided by while still covering the target.
+     */
+    private static int chooseScale(int width, int height,
+                                   int targetWidth, int targetHeight) {
+        int longSide = width > height ? width : height;
+        int shortSide = width > height ? height : width;
+        int targetLong = targetWidth > targetHeight ? targetWidth
+                                                     : targetHeight;
+        int targetShort = targetWidth > targetHeight ? targetHeight
+                                                      : targetWidth;
+
+        int scale = 8;
+        while (scale > 1 && (longSide / scale < targetLong
+                             || shortSide / scale < targetShort)) {
+            scale >>= 1;
+        }
+        return scale;
+    }
+
+    // private implementation //
+
+    private final byte[] data;
+    private int pos;
+    private final int end;
+
+    private int width, height;
+    private int restartInterval; // = 0;
+    private boolean rgb; // = false;
+
+    private int[][] quantTables = new int[4][];
+    private Huffman[] dcTables = new Huffman[4];
+    private Huffman[] acTables = new Huffman[4];
+
+    private Component[] components;
+    private int maxH, maxV;
+
+    /** entropy decoder state */
+    private int bitBuffer, bitCount;
+    private boolean hitMarker;
+
+    /**
+     * A single colour component of the frame
+     */
+    private static final class Component {
+        int id;
+        int h, v;
+        int hShift, vShift;
+        /** quantization table slot, resolved at the start of the scan */
+        int tq;
+        int[] quant;
+        Huffman dc, ac;
+        int dcPred;
+        /** samples of the current MCU row, at the scaled resolution */
+        int[] plane;
+        int planeScan;
+    }
+
+    /**
+     * Huffman decoding table as described in annex F.2.2.3 of the
+     * JPEG specification, with a lookup table for short codes.
+     */
+    private static final class Huffman {
+        final int[] maxCode = new int[18];
+        final int[] valPtr = new int[17];
+        final int[] minCode = new int[17];
+        final byte[] values;
+        /** (code length << 8) | value, 0 for longer codes */
+        final int[] lookup = new int[1 << LOOKUP_BITS];
+
+        Huffman(int[] counts, byte[] values) {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int len = 1; len <= 16; len++) {
+                valPtr[len] = k;
+                minCode[len] = code;
+                code += counts[len];
+                k += counts[len];
+                maxCode[len] = counts[len] != 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+
+            // fill in the lookup table for codes up to LOOKUP_BITS
+            k = 0;
+            code = 0;
+            for (int len = 1; len <= LOOKUP_BITS; len++) {
+                for (int i = 0; i < counts[len]; i++, k++, code++) {
+                    int shift = LOOKUP_BITS - len;
+                    int entry = (len << 8) | (values[k] & 0xff);
+                    for (int j = code << shift, last = (code + 1) << shift;
+                         j < last; j++) {
+                        lookup[j] = entry;
+                    }
+                }
+                code <<= 1;
+            }
+        }
+    }
+
+    private JpegDecoder(byte[] data, int offset, int length) {
+        this.data = data;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Reads the markers up to the start of the scan.
+     *
+     * @return <code>false</code> if the file is not supported
+     */
+    private boolean readHeaders() {
+        if (readMarker() != 0xd8) {
+            throw new IllegalArgumentException();
+        }
+
+        while (true) {
+            int marker = readMarker();
+            int segmentEnd = pos + readShort();
+            switch (marker) {
+            case 0xc0: // baseline
+            case 0xc1: // extended sequential, Huffman
+                if (!readFrame()) {
+                    return false;
+                }
+                break;
+
+            case 0xc2: case 0xc3: case 0xc5: case 0xc6: case 0xc7:
+            case 0xc9: case 0xca: case 0xcb: case 0xcd: case 0xce:
+            case 0xcf:
+                // progressive, lossless, hierarchical or arithmetic
+                return false;
+
+            case 0xc4:
+                readHuffmanTables(segmentEnd);
+                break;
+
+            case 0xdb:
+                readQuantTables(segmentEnd);
+                break;
+
+            case 0xdd:
+                restartInterval = readShort();
+                break;
+
+            case 0xee:
+                // Adobe: a transform flag of 0 means RGB, not YCbCr
+                if (segmentEnd - pos >= 12 && data[pos] == 'A'
+                    && data[pos + 1] == 'd' && data[pos + 2] == 'o'
+                    && data[pos + 3] == 'b' && data[pos + 4] == 'e') {
+                    rgb = data[pos + 11] == 0;
+                }
+                break;
+
+            case 0xda:
+                return readScanHeader();
+
+            case 0xd9:
+                throw new IllegalArgumentException();
+
+            default:
+                // APPn, COM and others carry nothing needed here
+                break;
+            }
+            pos = segmentEnd;
+        }
+    }
+
+    private boolean readFrame() {
+        if ((data[pos++] & 0xff) != 8) {
+            return false;
+        }
+
+        height = readShort();
+        width = readShort();
+        int count = data[pos++] & 0xff;
+        if (width == 0 || height == 0 || (count != 1 && count != 3)) {
+            return false;
+        }
+
+        components = new Component[count];
+        maxH = maxV = 1;
+        for (int i = 0; i < count; i++) {
+            Component c = new Component();
+            c.id = data[pos++] & 0xff;
+            int sampling = data[pos++] & 0xff;
+            c.h = sampling >> 4;
+            c.v = sampling & 15;
+            c.tq = data[pos++] & 0xff;
+            if (c.tq > 3 || !isPowerOfTwo(c.h) || !isPowerOfTwo(c.v)) {
+                return false;
+            }
+            if (count == 1) {
+                // a single component is never interleaved
+                c.h = c.v = 1;
+            }
+            maxH = c.h > maxH ? c.h : maxH;
+            maxV = c.v > maxV ? c.v : maxV;
+            components[i] = c;
+        }
+
+        for (int i = 0; i < count; i++) {
+            Component c = components[i];
+            c.hShift = log2(maxH / c.h);
+            c.vShift = log2(maxV / c.v);
+        }
+        return true;
+    }
+
+    private void readHuffmanTables(int segmentEnd) {
+        while (pos < segmentEnd) {
+            int info = data[pos++] & 0xff;
+            int[] counts = new int[17];
+            int total = 0;
+            for (int len = 1; len <= 16; len++) {
+                counts[len] = data[pos++] & 0xff;
+                total += counts[len];
+            }
+            byte[] values = new byte[total];
+            System.arraycopy(data, pos, values, 0, total);
+            pos += total;
+
+            Huffman table = new Huffman(counts, values);
+            if ((info >> 4) == 0) {
+                dcTables[info & 3] = table;
+            } else {
+                acTables[info & 3] = table;
+            }
+        }
+    }
+
+    private void readQuantTables(int segmentEnd) {
+        while (pos < segmentEnd) {
+            int info = data[pos++] & 0xff;
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                if ((info >> 4) == 0) {
+                    table[k] = data[pos++] & 0xff;
+                } else {
+                    table[k] = readShort();
+                }
+            }
+
+            quantTables[info & 3] = table;
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the scan does not hold every component
+     */
+    private boolean readScanHeader() {
+        if (components == null) {
+            throw new IllegalArgumentException();
+        }
+
+        int count = data[pos++] & 0xff;
+        if (count != components.length) {
+            return false;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int id = data[pos++] & 0xff;
+            int tables = data[pos++] & 0xff;
+            Component c = null;
+            for (int j = 0; j < components.length; j++) {
+                if (components[j].id == id) {
+                    c = components[j];
+                }
+            }
+            if (c == null || quantTables[c.tq] == null) {
+                throw new IllegalArgumentException();
+            }
+            c.quant = quantTables[c.tq];
+            c.dc = dcTables[tables >> 4];
+            c.ac = acTables[tables & 3];
+            if (c.dc == null || c.ac == null) {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        // spectral selection and approximation are fixed for baseline
+        pos += 3;
+        return true;
+    }
+
+    /**
+     * Decodes the entropy coded data of the scan.
+     *
+     * @param scale 1, 2, 4 or 8
+     * @return the decoded image
+     */
+    private Image decodeScan(int scale) {
+        int blockSize = 8 / scale;
+        int mcuWidth = 8 * maxH;
+        int mcuHeight = 8 * maxV;
+        int mcusX = (width + mcuWidth - 1) / mcuWidth;
+        int mcusY = (height + mcuHeight - 1) / mcuHeight;
+
+        int outWidth = (width + scale - 1) / scale;
+        int outHeight = (height + scale - 1) / scale;
+        int[] pixels = Image.allocatePixels(outWidth * outHeight);
+
+        for (int i = 0; i < components.length; i++) {
+            Component c = components[i];
+            c.planeScan = mcusX * c.h * blockSize;
+            c.plane = new int[c.planeScan * c.v * blockSize];
+        }
+
+        int[] coef = new int[64];
+        int[] tmp = new int[64];
+        int rowsPerMcu = maxV * blockSize;
+        int restartsLeft = restartInterval;
+
+        for (int my = 0; my < mcusY; my++) {
+            for (int mx = 0; mx < mcusX; mx++) {
+                if (restartInterval != 0) {
+                    if (restartsLeft == 0) {
+                        restart();
+                        restartsLeft = restartInterval;
+                    }
+                    restartsLeft--;
+                }
+
+                for (int i = 0; i < components.length; i++) {
+                    Component c = components[i];
+                    for (int v = 0; v < c.v; v++) {
+                        for (int h = 0; h < c.h; h++) {
+                            int dcOnly = decodeBlock(c, coef, blockSize);
+                            int at = v * blockSize * c.planeScan
+                                + (mx * c.h + h) * blockSize;
+                            if (dcOnly != Integer.MIN_VALUE) {
+                                fillBlock(c.plane, at, c.planeScan,
+                                          blockSize, dcOnly);
+                            } else {
+                                idct(coef, tmp, blockSize,
+                                     c.plane, at, c.planeScan);
+                            }
+                        }
+                    }
+                }
+            }
+
+            int y = my * rowsPerMcu;
+            int rows = outHeight - y < rowsPerMcu ? outHeight - y
+                                                   : rowsPerMcu;
+            convertRows(pixels, y * outWidth, outWidth, rows);
+        }
+
+        return new Image(pixels, 0, outWidth, outWidth, outHeight, false)
+            .account();
+    }
+
+    /**
+     * Decodes the coefficients of one block, keeping only the lowest
+     * <code>n</code> by <code>n</code> frequencies.
+     *
+     * @return the sample value of every pixel if the block has no AC
+     * coefficients left, <code>Integer.MIN_VALUE</code> otherwise
+     */
+    private int decodeBlock(Component c, int[] coef, int n) {
+        int[] quant = c.quant;
+        int s = decodeHuffman(c.dc);
+        int diff = (s == 0) ? 0 : extend(receive(s), s);
+        c.dcPred += diff;
+        int dc = c.dcPred * quant[0];
+
+        boolean acZero = true;
+        for (int v = 0; v < n; v++) {
+            for (int u = 0; u < n; u++) {
+                coef[(v << 3) + u] = 0;
+            }
+        }
+
+        for (int k = 1; k < 64; ) {
+            int rs = decodeHuffman(c.ac);
+            int r = rs >> 4;
+            s = rs & 15;
+            if (s == 0) {
+                if (r != 15) {
+                    break; // end of block
+                }
+                k += 16;
+                continue;
+            }
+
+            k += r;
+            if (k > 63) {
+                break;
+            }
+            int value = receive(s);
+            int z = ZIGZAG[k];
+            if ((z >> 3) < n && (z & 7) < n) {
+                value = extend(value, s) * quant[k];
+                if (value != 0) {
+                    coef[z] = value;
+                    acZero = false;
+                }
+            }
+            k++;
+        }
+
+        if (acZero) {
+            // flat block: every sample is DC / 8
+            return clamp(((dc + 4) >> 3) + 128);
+        }
+        coef[0] = dc;
+        return Integer.MIN_VALUE;
+    }
+
+    private static void fillBlock(int[] plane, int at, int scan,
+                                  int n, int value) {
+        for (int y = 0; y < n; y++, at += scan) {
+            for (int x = 0; x < n; x++) {
+                plane[at + x] = value;
+            }
+        }
+    }
+
+    /**
+     * Inverse DCT of the lowest <code>n</code> by <code>n</code>
+     * coefficients into an <code>n</code> by <code>n</code> block of
+     * samples, columns first and then rows.
+     */
+    private static void idct(int[] coef, int[] tmp, int n,
+                             int[] plane, int at, int scan) {
+        int[] table = IDCT_TABLES[n];
+
+        for (int u = 0; u < n; u++) {
+            for (int y = 0; y < n; y++) {
+                int sum = 0;
+                for (int v = 0, t = y * n; v < n; v++) {
+                    sum += table[t + v] * coef[(v << 3) + u];
+                }
+                tmp[(y << 3) + u] = sum >> (IDCT_BITS - 4);
+            }
+        }
+
+        int round = 1 << (IDCT_BITS + 3);
+        for (int y = 0; y < n; y++, at += scan) {
+            int row = y << 3;
+            for (int x = 0; x < n; x++) {
+                int sum = round;
+                for (int u = 0, t = x * n; u < n; u++) {
+                    sum += table[t + u] * tmp[row + u];
+                }
+                plane[at + x] = clamp((sum >> (IDCT_BITS + 4)) + 128);
+            }
+        }
+    }
+
+    /**
+     * Converts the samples of the current MCU row into ARGB pixels.
+     */
+    private void convertRows(int[] pixels, int at, int w, int rows) {
+        if (components.length == 1) {
+            Component g = components[0];
+            for (int y = 0; y < rows; y++, at += w) {
+                int p = y * g.planeScan;
+                for (int x = 0; x < w; x++) {
+                    int v = g.plane[p + x];
+                    pixels[at + x] = 0xff000000 | (v << 16) | (v << 8) | v;
+                }
+            }
+            return;
+        }
+
+        Component c0 = components[0];
+        Component c1 = components[1];
+        Component c2 = components[2];
+        for (int y = 0; y < rows; y++, at += w) {
+            int p0 = (y >> c0.vShift) * c0.planeScan;
+            int p1 = (y >> c1.vShift) * c1.planeScan;
+            int p2 = (y >> c2.vShift) * c2.planeScan;
+            for (int x = 0; x < w; x++) {
+                int a = c0.plane[p0 + (x >> c0.hShift)];
+                int b = c1.plane[p1 + (x >> c1.hShift)];
+                int c = c2.plane[p2 + (x >> c2.hShift)];
+                int r, g;
+                if (rgb) {
+                    r = a;
+                    g = b;
+                } else {
+                    // a, b, c are Y, Cb and Cr
+                    r = clamp(a + (CR_R[c] >> 16));
+                    g = clamp(a + ((CB_G[b] + CR_G[c]) >> 16));
+                    c = clamp(a + (CB_B[b] >> 16));
+                }
+                pixels[at + x] = 0xff000000 | (r << 16) | (g << 8) | c;
+            }
+        }
+    }
+
+    /**
+     * Skips a restart marker and resets the decoder state.
+     */
+    private void restart() {
+        bitBuffer = bitCount = 0;
+        hitMarker = false;
+        while (pos + 1 < end) {
+            if ((data[pos] & 0xff) == 0xff) {
+                int m = data[pos + 1] & 0xff;
+                if (m >= 0xd0 && m <= 0xd7) {
+                    pos += 2;
+                    break;
+                }
+            }
+            pos++;
+        }
+        for (int i = 0; i < components.length; i++) {
+            components[i].dcPred = 0;
+        }
+    }
+
+    /**
+     * Makes sure at least 25 bits are in the bit buffer. Zero bits are
+     * supplied once a marker, or the end of the data, is reached.
+     */
+    private void fill() {
+        while (bitCount <= 24) {
+            int b = 0;
+            if (!hitMarker && pos < end) {
+                b = data[pos] & 0xff;
+                if (b == 0xff) {
+                    int next = pos + 1 < end ? data[pos + 1] & 0xff : 0xd9;
+                    if (next == 0) {
+                        pos += 2; // stuffed zero byte
+                    } else {
+                        hitMarker = true;
+                        b = 0;
+                    }
+                } else {
+                    pos++;
+                }
+            }
+            bitBuffer |= b << (24 - bitCount);
+            bitCount += 8;
+        }
+    }
+
+    private int decodeHuffman(Huffman table) {
+        fill();
+        int entry = table.lookup[bitBuffer >>> (32 - LOOKUP_BITS)];
+        if (entry != 0) {
+            int len = entry >> 8;
+            bitBuffer <<= len;
+            bitCount -= len;
+            return entry & 0xff;
+        }
+
+        int len = LOOKUP_BITS + 1;
+        int code = bitBuffer >>> (32 - len);
+        while (code > table.maxCode[len]) {
+            len++;
+            if (len > 16) {
+                throw new IllegalArgumentException();
+            }
+            code = bitBuffer >>> (32 - len);
+        }
+        bitBuffer <<= len;
+        bitCount -= len;
+        return table.values[table.valPtr[len] + code - table.minCode[len]]
+            & 0xff;
+    }
+
+    private int receive(int s) {
+        fill();
+        int value = bitBuffer >>> (32 - s);
+        bitBuffer <<= s;
+        bitCount -= s;
+        return value;
+    }
+
+    private static int extend(int value, int s) {
+        return value < (1 << (s - 1)) ? value - (1 << s) + 1 : value;
+    }
+
+    private int readMarker() {
+        while ((data[pos] & 0xff) != 0xff) {
+            pos++;
+        }
+        while ((data[pos] & 0xff) == 0xff) {
+            pos++; // fill bytes
+        }
+        return data[pos++] & 0xff;
+    }
+
+    private int readShort() {
+        int value = ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+        pos += 2;
+        return value;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static boolean isPowerOfTwo(int value) {
+        return value == 1 || value == 2 || value == 4;
+    }
+
+    private static int log2(int value) {
+        return value == 4 ? 2 : (value == 2 ? 1 : 0);
+    }
+}
@@ -0,0 +1,357 @@
+package javax.microedition.lcdui.game;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sparse storage for the cells of a <code>TiledLayer</code>. The grid is
+ * split into blocks of <code>BLOCK_SIZE</code> by <code>BLOCK_SIZE</code>
+ * cells and only blocks holding a non-empty cell are allocated. Cells
+ * are kept in bytes as long as every index fits, and widened to shorts
+ * and then ints when an index that does not fit is stored.
+ *
+ * <p>The cells may also come from a buffer, typically a memory-mapped
+ * level file. Blocks are then read from the buffer until a cell of
+ * theirs is set, at which point the block is copied in.</p>
+ */
+final class CellStore {
+
+    /** log2 of <code>BLOCK_SIZE</code> */
+    static final int BLOCK_SHIFT = 5;
+
+    /** number of cells across and down a block */
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    /**
+     * Creates a store of empty cells.
+     *
+     * @param columns the number of columns of the grid
+     * @param rows the number of rows of the grid
+     */
+    CellStore(int columns, int rows) {
+        this.columns = columns;
+        this.rows = rows;
+        blocksAcross = (columns + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        int blocks = blocksAcross * ((rows + BLOCK_SIZE - 1) >> BLOCK_SHIFT);
+        counts = new int[blocks];
+        mapped = new boolean[blocks];
+        byteBlocks = new byte[blocks][];
+        cellSize = 1;
+    }
+
+    /**
+     * Returns the contents of a cell. The cell must lie within the grid.
+     *
+     * @param col the column of the cell
+     * @param row the row of the cell
+     * @return the tile index held by the cell
+     */
+    int get(int col, int row) {
+        int block = (row >> BLOCK_SHIFT) * blocksAcross + (col >> BLOCK_SHIFT);
+        if (mapped[block]) {
+            return readMapped(col, row);
+        }
+        if (counts[block] == 0) {
+            return 0;
+        }
+
+        int i = ((row & (BLOCK_SIZE - 1)) << BLOCK_SHIFT)
+            | (col & (BLOCK_SIZE - 1));
+        switch (cellSize) {
+        case 1:
+            return byteBlocks[block][i];
+        case 2:
+            return shortBlocks[block][i];
+        default:
+            return intBlocks[block][i];
+        }
+    }
+
+    /**
+     * Sets the contents of a cell. The cell must lie within the grid.
+     *
+     * @param col the column of the cell
+     * @param row the row of the cell
+     * @param tileIndex the tile index to store
+     */
+    void set(int col, int row, int tileIndex) {
+        int block = (row >> BLOCK_SHIFT) * blocksAcross + (col >> BLOCK_SHIFT);
+        if (mapped[block]) {
+            load(block);
+        }
+        if (counts[block] == 0 && tileIndex == 0) {
+            return; // nothing to allocate for an empty cell
+        }
+        widen(tileIndex);
+
+        int i = ((row & (BLOCK_SIZE - 1)) << BLOCK_SHIFT)
+            | (col & (BLOCK_SIZE - 1));
+        int old;
+        switch (cellSize) {
+        case 1:
+            if (byteBlocks[block] == null) {
+                byteBlocks[block] = new byte[BLOCK_SIZE * BLOCK_SIZE];
+            }
+            old = byteBlocks[block][i];
+            byteBlocks[block][i] = (byte)tileIndex;
+            break;
+        case 2:
+            if (shortBlocks[block] == null) {
+                shortBlocks[block] = new short[BLOCK_SIZE * BLOCK_SIZE];
+            }
+            old = shortBlocks[block][i];
+            shortBlocks[block][i] = (short)tileIndex;
+            break;
+        default:
+            if (intBlocks[block] == null) {
+                intBlocks[block] = new int[BLOCK_SIZE * BLOCK_SIZE];
+            }
+            old = intBlocks[block][i];
+            intBlocks[block][i] = tileIndex;
+            break;
+        }
+
+        if (old == 0 && tileIndex != 0) {
+            counts[block]++;
+        } else if (old != 0 && tileIndex == 0 && --counts[block] == 0) {
+            release(block);
+        }
+    }
+
+    /**
+     * Sets the contents of a range of cells. The range must lie within
+     * the grid.
+     *
+     * @param col the first column of the range
+     * @param row the first row of the range
+     * @param numCols the number of columns in the range
+     * @param numRows the number of rows in the range
+     * @param tileIndex the tile index to store
+     */
+    void fill(int col, int row, int numCols, int numRows, int tileIndex) {
+        for (int r = row; r < row + numRows; r++) {
+            for (int c = col; c < col + numCols; c++) {
+                set(c, r, tileIndex);
+            }
+        }
+    }
+
+    /**
+     * Empties every cell, dropping the buffer the cells came from.
+     */
+    void clear() {
+        for (int block = counts.length; --block >= 0; ) {
+            counts[block] = 0;
+            mapped[block] = false;
+            release(block);
+        }
+        buffer = null;
+    }
+
+    /**
+     * Tells whether every cell of a block is empty, without reading
+     * the buffer of a mapped block.
+     *
+     * @param blockCol the column of the block, in blocks
+     * @param blockRow the row of the block, in blocks
+     * @return <code>true</code> if the block is known to be empty
+     */
+    boolean isBlank(int blockCol, int blockRow) {
+        int block = blockRow * blocksAcross + blockCol;
+        return !mapped[block] && counts[block] == 0;
+    }
+
+    /**
+     * Takes the cells from a buffer holding them row by row, each cell
+     * a signed integer of <code>cellSize</code> bytes in the byte order
+     * of the buffer, starting at its position. The buffer is read as
+     * cells are needed and never written.
+     *
+     * <p>Every cell is checked against the range of valid tile indices
+     * before any is taken, so that a bad index is reported here rather
+     * than when the cell is painted.</p>
+     *
+     * @param cells the buffer holding the cells
+     * @param cellSize the size of a cell in the buffer, 1, 2 or 4
+     * @param minIndex the smallest valid tile index
+     * @param maxIndex the largest valid tile index
+     * @throws IllegalArgumentException if <code>cellSize</code> is not
+     * one of 1, 2 or 4, or if the buffer holds less than
+     * <code>columns * rows</code> cells
+     * @throws IndexOutOfBoundsException if a cell holds an index
+     * outside the range
+     */
+    void map(ByteBuffer cells, int cellSize, int minIndex, int maxIndex) {
+        if ((cellSize != 1 && cellSize != 2 && cellSize != 4)
+            || (long)cells.remaining() < (long)columns * rows * cellSize) {
+            throw new IllegalArgumentException();
+        }
+
+        int start = cells.position();
+        for (int i = 0, n = columns * rows; i < n; i++) {
+            int tileIndex;
+            switch (cellSize) {
+            case 1:
+                tileIndex = cells.get(start + i);
+                break;
+            case 2:
+                tileIndex = cells.getShort(start + (i << 1));
+                break;
+            default:
+                tileIndex = cells.getInt(start + (i << 2));
+                break;
+            }
+            if (tileIndex < minIndex || tileIndex > maxIndex) {
+                throw new IndexOutOfBoundsException("cell " + i
+                                                    + ": tile index "
+                                                    + tileIndex);
+            }
+        }
+
+        clear();
+        buffer = cells.slice().order(cells.order());
+        bufferCellSize = cellSize;
+        for (int block = mapped.length; --block >= 0; ) {
+            mapped[block] = true;
+        }
+    }
+
+    // private implementation //
+
+    /** size of the grid, in cells */
+    private final int columns, rows;
+
+    /** number of blocks across the grid */
+    private final int blocksAcross;
+
+    /** number of non-empty cells of each block */
+    private final int[] counts;
+
+    /** <code>true</code> for blocks still read from the buffer */
+    private final boolean[] mapped;
+
+    /**
+     * The blocks, row by row, of the current cell size. Blocks
+     * without a non-empty cell are <code>null</code>.
+     */
+    private byte[][] byteBlocks; // = null;
+    private short[][] shortBlocks; // = null;
+    private int[][] intBlocks; // = null;
+
+    /** number of bytes taken by a cell in the blocks */
+    private int cellSize;
+
+    /** the buffer the mapped blocks are read from */
+    private ByteBuffer buffer; // = null;
+
+    /** number of bytes taken by a cell in the buffer */
+    private int bufferCellSize; // = 0;
+
+    /**
+     * Reads a cell of a mapped block from the buffer.
+     */
+    private int readMapped(int col, int row) {
+        int i = row * columns + col;
+        switch (bufferCellSize) {
+        case 1:
+            return buffer.get(i);
+        case 2:
+            return buffer.getShort(i << 1);
+        default:
+            return buffer.getInt(i << 2);
+        }
+    }
+
+    /**
+     * Copies a mapped block in from the buffer.
+     */
+    private void load(int block) {
+        mapped[block] = false;
+        int col1 = (block % blocksAcross) << BLOCK_SHIFT;
+        int row1 = (block / blocksAcross) << BLOCK_SHIFT;
+        int col2 = Math.min(col1 + BLOCK_SIZE, columns);
+        int row2 = Math.min(row1 + BLOCK_SIZE, rows);
+        for (int row = row1; row < row2; row++) {
+            for (int col = col1; col < col2; col++) {
+                int tileIndex = readMapped(col, row);
+                if (tileIndex != 0) {
+                    set(col, row, tileIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the storage of a block.
+     */
+    private void release(int block) {
+        switch (cellSize) {
+        case 1:
+            byteBlocks[block] = null;
+            break;
+        case 2:
+            shortBlocks[block] = null;
+            break;
+        default:
+            intBlocks[block] = null;
+            break;
+        }
+    }
+
+    /**
+     * Widens the cells of every block if a tile index does not fit
+     * the current cell size.
+     */
+    private void widen(int tileIndex) {
+        if (cellSize == 1 && tileIndex == (byte)tileIndex) {
+            return;
+        }
+        if (cellSize == 2 && tileIndex == (short)tileIndex) {
+            return;
+        }
+        if (cellSize == 4) {
+            return;
+        }
+
+        int blocks = counts.length;
+        int cells = BLOCK_SIZE * BLOCK_SIZE;
+        if (tileIndex == (short)tileIndex) {
+            // bytes to shorts
+            shortBlocks = new short[blocks][];
+            for (int block = 0; block < blocks; block++) {
+                byte[] from = byteBlocks[block];
+                if (from != null) {
+                    short[] to = new short[cells];
+                    for (int i = 0; i < cells; i++) {
+                        to[i] = from[i];
+                    }
+                    shortBlocks[block] = to;
+                }
+            }
+            byteBlocks = null;
+            cellSize = 2;
+            return;
+        }
+
+        intBlocks = new int[blocks][];
+        for (int block = 0; block < blocks; block++) {
+            int[] to = null;
+            if (cellSize == 1 && byteBlocks[block] != null) {
+                byte[] from = byteBlocks[block];
+                to = new int[cells];
+                for (int i = 0; i < cells; i++) {
+                    to[i] = from[i];
+                }
+            } else if (cellSize == 2 && shortBlocks[block] != null) {
+                short[] from = shortBlocks[block];
+                to = new int[cells];
+                for (int i = 0; i < cells; i++) {
+                    to[i] = from[i];
+                }
+            }
+            intBlocks[block] = to;
+        }
+        byteBlocks = null;
+        shortBlocks = null;
+        cellSize = 4;
+    }
+}
@@ -0,0 +1,170 @@
+package javax.microedition.lcdui.game;
+
+import java.util.WeakHashMap;
+
+import javax.microedition.lcdui.Image;
+
+import com.cuby.lcdui.GraphicsAccess;
+
+/**
+ * One-bit opacity masks for pixel level collision detection. A mask
+ * covers a region of an image as it appears with a transform applied.
+ * Each row of the region is packed into <code>words(width)</code>
+ * longs, column <code>c</code> of a row being bit <code>c & 63</code>
+ * of word <code>c >> 6</code>. A bit is set for every pixel that is not
+ * fully transparent.
+ *
+ * <p>Images of the <code>OPAQUE</code> class need no mask, every pixel
+ * within their bounds collides.</p>
+ */
+final class CollisionMask {
+
+    private CollisionMask() {
+    }
+
+    /**
+     * Returns the number of longs holding a mask row.
+     *
+     * @param width the width of the masked region
+     * @return the length of a row in the mask
+     */
+    static int words(int width) {
+        return (width + 63) >> 6;
+    }
+
+    /**
+     * Returns <code>true</code> if every pixel of the image is opaque,
+     * so that no mask is needed.
+     *
+     * @param image the image
+     * @return <code>true</code> if the image is fully opaque
+     */
+    static boolean isOpaque(Image image) {
+        return GraphicsAccess.getInstance().isOpaque(image);
+    }
+
+    /**
+     * Builds the mask of a region of an image with a transform applied.
+     *
+     * @param image the image holding the region
+     * @param x the horizontal location of the region
+     * @param y the vertical location of the region
+     * @param w the width of the region
+     * @param h the height of the region
+     * @param transform the transform to be applied to the region
+     * @return the mask, with rows as wide as the transformed region
+     */
+    static long[] build(Image image, int x, int y, int w, int h,
+                        int transform) {
+        int[] argb = new int[w * h];
+        image.getRGB(argb, 0, w, x, y, w, h);
+
+        boolean swap = (transform & 4) != 0;
+        int tw = swap ? h : w;
+        int th = swap ? w : h;
+        int words = words(tw);
+        long[] mask = new long[words * th];
+
+        for (int dy = 0; dy < th; dy++) {
+            for (int dx = 0; dx < tw; dx++) {
+                int sx = swap ? dy : dx;
+                int sy = swap ? dx : dy;
+                if ((transform & 2) != 0) {
+                    sx = w - 1 - sx;
+                }
+                if ((transform & 1) != 0) {
+                    sy = h - 1 - sy;
+                }
+
+                if ((argb[sy * w + sx] >>> 24) != 0) {
+                    mask[dy * words + (dx >> 6)] |= 1L << (dx & 63);
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the mask of a whole image, built on first use and kept
+     * for as long as the image is alive.
+     *
+     * @param image the image
+     * @return the mask of the image
+     */
+    static long[] get(Image image) {
+        synchronized (imageMasks) {
+            long[] mask = (long[])imageMasks.get(image);
+            if (mask == null) {
+                mask = build(image, 0, 0, image.getWidth(),
+                             image.getHeight(), Sprite.TRANS_NONE);
+                imageMasks.put(image, mask);
+            }
+            return mask;
+        }
+    }
+
+    /**
+     * Tests whether two masks have a set bit in common within an area.
+     * Either mask may be <code>null</code> for a fully opaque region.
+     * The area must lie within both regions.
+     *
+     * @param m1 the first mask
+     * @param words1 the row length of the first mask
+     * @param x1 the horizontal location of the area in the first mask
+     * @param y1 the vertical location of the area in the first mask
+     * @param m2 the second mask
+     * @param words2 the row length of the second mask
+     * @param x2 the horizontal location of the area in the second mask
+     * @param y2 the vertical location of the area in the second mask
+     * @param w the width of the area
+     * @param h the height of the area
+     * @return <code>true</code> if the masks overlap
+     */
+    static boolean overlaps(long[] m1, int words1, int x1, int y1,
+                            long[] m2, int words2, int x2, int y2,
+                            int w, int h) {
+        if (m1 == null && m2 == null) {
+            return w > 0 && h > 0;
+        }
+
+        for (int row = 0; row < h; row++) {
+            int base1 = (y1 + row) * words1;
+            int base2 = (y2 + row) * words2;
+            for (int col = 0; col < w; col += 64) {
+                long bits = (w - col >= 64) ? -1L : (1L << (w - col)) - 1;
+                if (m1 != null) {
+                    bits &= window(m1, base1, words1, x1 + col);
+                }
+                if (m2 != null) {
+                    bits &= window(m2, base2, words2, x2 + col);
+                }
+                if (bits != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // private implementation //
+
+    /**
+     * Masks of whole images tested with
+     * <code>Sprite.collidesWith(Image, ...)</code>
+     */
+    private static final WeakHashMap imageMasks = new WeakHashMap();
+
+    /**
+     * Returns the 64 bits of a mask row starting at column
+     * <code>bit</code>. Columns past the end of the row read as zero.
+     */
+    private static long window(long[] mask, int base, int words, int bit) {
+        int word = bit >> 6;
+        int shift = bit & 63;
+        long bits = mask[base + word] >>> shift;
+        if (shift != 0 && word + 1 < words) {
+            bits |= mask[base + word + 1] << (64 - shift);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,37 @@
+package javax.microedition.lcdui.game;
+
+import java.nio.ByteBuffer;
+
+import javax.microedition.lcdui.Canvas;
+
+import com.cuby.lcdui.GameAccess;
+
+/**
+ * Implementation of <code>GameAccess</code>, registered by
+ * <code>GameCanvas</code>.
+ */
+final class GameAccessImpl extends GameAccess {
+
+    public void latchGameKey(Canvas canvas, int type, int gameAction) {
+        if (canvas instanceof GameCanvas) {
+            ((GameCanvas)canvas).latchGameKey(type, gameAction);
+        }
+    }
+
+    public boolean suppressesKeyEvents(Canvas canvas) {
+        if (canvas instanceof GameCanvas) {
+            return ((GameCanvas)canvas).suppressesKeyEvents();
+        }
+        return false;
+    }
+
+    public void visibilityChanged(Canvas canvas, boolean shown) {
+        if (canvas instanceof GameCanvas) {
+            ((GameCanvas)canvas).visibilityChanged(shown);
+        }
+    }
+
+    public void mapCells(TiledLayer layer, ByteBuffer cells, int cellSize) {
+        layer.mapCells(cells, cellSize);
+    }
+}
@@ -1,10 +1,19 @@
 
 package javax.microedition.lcdui.game;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.microedition.lcdui.Image;
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Canvas;
 
+import com.cuby.lcdui.DisplayAccess;
+import com.cuby.lcdui.DisplayView;
+import com.cuby.lcdui.GameAccess;
+import com.cuby.lcdui.GraphicsAccess;
+import com.cuby.lcdui.InputRecorder;
+import com.cuby.lcdui.InputReplayer;
+
 /**
  * The GameCanvas class provides the basis for a game user interface.  In
  * addition to the features inherited from Canvas (commands, input events,
@@ -128,6 +137,16 @@ public abstract class GameCanvas extends Canvas
      */
     private Image offscreen_buffer;
 
+    /**
+     * The Graphics object rendering to <code>offscreen_buffer</code>,
+     * handed out by every call to <code>getGraphics</code>
+     */
+    private Graphics graphics; // = null;
+
+    static {
+        GameAccess.register(new GameAccessImpl());
+    }
+
     /**
      * Creates a new instance of a GameCanvas.  A new buffer is also created
      * for the GameCanvas and is initially filled with white pixels.
@@ -157,7 +176,12 @@ public abstract class GameCanvas extends Canvas
      * key event mechanism for game keys, otherwise <code>false</code>.
      */
     protected GameCanvas(boolean suppressKeyEvents) {
+        this.suppressKeyEvents = suppressKeyEvents;
 
+        // the canvas takes the whole view, so its current size is its
+        // maximum size; before the view is laid out the size of the
+        // display stands in for it, which is no smaller
+        offscreen_buffer = Image.createImage(getWidth(), getHeight());
     }
     
 
@@ -170,13 +194,13 @@ public abstract class GameCanvas extends Canvas
      * is called; flushing the buffer does not change its contents (the pixels
      * are not cleared as a result of the flushing operation).
      * <p>
-     * A new Graphics object is created and returned each time this method is
-     * called; therefore, the needed Graphics object(s) should be obtained 
-     * before the game starts then re-used while the game is running.  
-     * For each GameCanvas instance, all of the provided graphics objects will
-     * render to the same off-screen buffer. 
+     * The same Graphics object is returned each time this method is
+     * called, reset to the properties below; therefore, the Graphics object
+     * should be obtained before the game starts then re-used while the game
+     * is running, and a call to this method affects the Graphics object
+     * obtained by an earlier call.
      * <P>
-     * <P>The newly created Graphics object has the following properties:
+     * <P>The returned Graphics object has the following properties:
      * </P>
      * <ul>
      * <LI>the destination is this GameCanvas' buffer;
@@ -196,7 +220,12 @@ public abstract class GameCanvas extends Canvas
      * @see #flushGraphics(int, int, int, int)	 
      */
     protected Graphics getGraphics() {
-	return offscreen_buffer.getGraphics();
+        if (graphics == null) {
+            graphics = offscreen_buffer.getGraphics();
+        } else {
+            GraphicsAccess.getInstance().resetGraphics(graphics);
+        }
+	return graphics;
     }
 
     /**
@@ -255,8 +284,26 @@ public abstract class GameCanvas extends Canvas
      * key), or 0 if the GameCanvas is not currently shown.
      */
     public int getKeyStates() {
-       
-	return 0;
+        InputReplayer replayer = InputReplayer.getActive();
+        if (replayer != null) {
+            return replayer.nextKeyStates();
+        }
+
+        int result = 0;
+        if (shown) {
+            // clear the latched bits, keeping the keys that are down
+            int states;
+            do {
+                states = keyStates.get();
+            } while (!keyStates.compareAndSet(states, states & KEYS_DOWN));
+            result = (states | (states >>> LATCH_SHIFT)) & KEYS_DOWN;
+        }
+
+        InputRecorder recorder = InputRecorder.getActive();
+        if (recorder != null) {
+            recorder.keyStates(result);
+        }
+        return result;
     }
 
     /**
@@ -299,7 +346,27 @@ public abstract class GameCanvas extends Canvas
 	    return;
 	}
 
- 
+        // only the region within the canvas is flushed
+        int right = (int)Math.min((long)x + width,
+                                  Math.min(getWidth(),
+                                           offscreen_buffer.getWidth()));
+        int bottom = (int)Math.min((long)y + height,
+                                   Math.min(getHeight(),
+                                            offscreen_buffer.getHeight()));
+        if (x < 0) {
+            x = 0;
+        }
+        if (y < 0) {
+            y = 0;
+        }
+        if (x >= right || y >= bottom || !shown) {
+            return;
+        }
+
+        DisplayView view = DisplayView.getInstance();
+        if (view != null) {
+            view.present(offscreen_buffer, x, y, right - x, bottom - y);
+        }
     }
 
     /**
@@ -317,10 +384,88 @@ public abstract class GameCanvas extends Canvas
      * @see #flushGraphics(int,int,int,int)	  
      */
     public void flushGraphics() {
+        flushGraphics(0, 0, getWidth(), getHeight());
+    }
+
+    // package private implementation //
+
+    /**
+     * Records a game key event in the key states. Called by the thread
+     * posting the event, so that the key states follow the keys even
+     * while the event thread is busy.
+     *
+     * @param type one of <code>DisplayAccess.KEY_PRESSED</code>,
+     * <code>KEY_RELEASED</code> or <code>KEY_REPEATED</code>
+     * @param gameAction the game action of the key
+     */
+    void latchGameKey(int type, int gameAction) {
+        if (!shown) {
+            return;
+        }
 
-     
+        int key = 1 << gameAction;
+        int states, next;
+        do {
+            states = keyStates.get();
+            if (type == DisplayAccess.KEY_PRESSED) {
+                next = states | key | (key << LATCH_SHIFT);
+            } else if (type == DisplayAccess.KEY_RELEASED) {
+                next = states & ~key;
+            } else {
+                break;
+            }
+        } while (!keyStates.compareAndSet(states, next));
     }
 
+    /**
+     * Tells whether game key events are kept from the key event
+     * methods.
+     *
+     * @return <code>true</code> if game key events are suppressed
+     */
+    boolean suppressesKeyEvents() {
+        return suppressKeyEvents;
+    }
 
-}
+    /**
+     * Forgets every key when this canvas is shown or hidden, keys held
+     * down while it is shown have to be pressed again.
+     *
+     * @param shown <code>true</code> if this canvas became current
+     */
+    void visibilityChanged(boolean shown) {
+        keyStates.set(0);
+        this.shown = shown;
+    }
 
+    // private implementation //
+
+    /**
+     * Bits of the keys currently down in <code>keyStates</code>, one
+     * per game action as in <code>getKeyStates</code>
+     */
+    private static final int KEYS_DOWN = 0xffff;
+
+    /**
+     * Keys pressed since the last call to <code>getKeyStates</code>
+     * are latched in <code>keyStates</code> this many bits up
+     */
+    private static final int LATCH_SHIFT = 16;
+
+    /**
+     * <code>true</code> if game key events are kept from
+     * <code>keyPressed</code>, <code>keyReleased</code> and
+     * <code>keyRepeated</code>
+     */
+    private final boolean suppressKeyEvents;
+
+    /**
+     * The keys down and the keys latched. Written by the thread
+     * posting key events and read by the game loop, so updated
+     * without locking.
+     */
+    private final AtomicInteger keyStates = new AtomicInteger();
+
+    /** <code>true</code> while this canvas is current */
+    private volatile boolean shown; // = false;
+}
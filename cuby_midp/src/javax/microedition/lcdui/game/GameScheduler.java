@@ -0,0 +1,452 @@
+package javax.microedition.lcdui.game;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import javax.microedition.midlet.MIDletContainer;
+
+import com.cuby.lcdui.InputRecorder;
+import com.cuby.lcdui.InputReplayer;
+
+/**
+ * Runs a game loop on a thread of its own: the game state is updated
+ * at a fixed tick rate, and the game rendered once per frame. This
+ * class is a cuby extension to MIDP.
+ *
+ * <p>Frames are aligned to the refresh period of the display, so that
+ * every frame rendered gets presented. When updates fall behind, up to
+ * <code>setMaxCatchUp</code> ticks are run back to back in a frame and
+ * any further time is dropped, slowing the game down instead of
+ * freezing it; up to <code>setMaxFrameSkip</code> frames in a row may
+ * then go without rendering to let the updates catch up.</p>
+ *
+ * <p>While input is recorded, the ticks run and the frames skipped are
+ * recorded with it. While a replay is active, the scheduler instead
+ * runs the frames of the recording, ticks and skips included, with no
+ * catch up or waiting of its own; see <code>InputReplayer</code>.</p>
+ *
+ * <p>The scheduler keeps statistics of the frames it ran: percentiles
+ * of the time spent updating and rendering over the last
+ * <code>FRAME_HISTORY</code> frames, frames that missed their
+ * presentation deadline, frames skipped, ticks dropped and the share
+ * of time the loop spent sleeping.</p>
+ */
+public class GameScheduler implements Runnable {
+
+    /**
+     * The game driven by a scheduler. Both methods are called on the
+     * thread of the scheduler.
+     */
+    public interface Game {
+
+        /**
+         * Advances the game state by one tick.
+         */
+        void update();
+
+        /**
+         * Renders the current game state, typically to a
+         * <code>GameCanvas</code> that is then flushed.
+         */
+        void render();
+    }
+
+    /** Number of frames the frame time percentiles cover */
+    public static final int FRAME_HISTORY = 128;
+
+    /**
+     * Creates a scheduler, not yet started.
+     *
+     * @param game the game to drive
+     * @param ticksPerSecond the rate of updates
+     * @throws NullPointerException if <code>game</code> is
+     * <code>null</code>
+     * @throws IllegalArgumentException if <code>ticksPerSecond</code>
+     * is less than <code>1</code>
+     */
+    public GameScheduler(Game game, int ticksPerSecond) {
+        if (game == null) {
+            throw new NullPointerException();
+        }
+        if (ticksPerSecond < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.game = game;
+        tickNanos = 1000000000L / ticksPerSecond;
+        refreshNanos = (long)(1000000000L / getRefreshRate());
+    }
+
+    /**
+     * Sets the most ticks run in a single frame to catch up. Time
+     * beyond that is dropped. The default is <code>5</code>.
+     *
+     * @param ticks the most ticks per frame
+     * @throws IllegalArgumentException if <code>ticks</code> is less
+     * than <code>1</code>
+     */
+    public void setMaxCatchUp(int ticks) {
+        if (ticks < 1) {
+            throw new IllegalArgumentException();
+        }
+        maxCatchUp = ticks;
+    }
+
+    /**
+     * Sets the most frames in a row left without rendering while the
+     * updates are behind. The default is <code>2</code>.
+     *
+     * @param frames the most frames skipped in a row, <code>0</code>
+     * to render every frame
+     * @throws IllegalArgumentException if <code>frames</code> is
+     * negative
+     */
+    public void setMaxFrameSkip(int frames) {
+        if (frames < 0) {
+            throw new IllegalArgumentException();
+        }
+        maxFrameSkip = frames;
+    }
+
+    /**
+     * Starts the loop on a new thread. Does nothing if it is running.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this);
+        thread.start();
+    }
+
+    /**
+     * Asks the loop to stop after the current frame and waits until
+     * it has, unless called from the loop itself.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+        }
+        if (t == null || t == Thread.currentThread()) {
+            return;
+        }
+
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Tells whether the loop is running.
+     *
+     * @return <code>true</code> between <code>start</code> and
+     * <code>stop</code>
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Runs the loop until <code>stop</code> is called. Called by the
+     * thread of the scheduler; may instead be called directly to run
+     * the loop on the calling thread.
+     */
+    public void run() {
+        synchronized (this) {
+            if (thread == null) {
+                // called directly rather than by start, which already
+                // set the flag; setting it here again could undo a
+                // stop made in between
+                thread = Thread.currentThread();
+                running = true;
+            }
+        }
+
+        long origin = System.nanoTime();
+        long nextTick = origin;
+        int skipped = 0;
+
+        try {
+            InputReplayer replayer = InputReplayer.getActive();
+            if (replayer != null) {
+                replay(replayer, origin);
+                return;
+            }
+
+            while (running) {
+                long start = System.nanoTime();
+                InputRecorder recorder = InputRecorder.getActive();
+
+                // the ticks due, within the catch up limit
+                long due = (nextTick <= start)
+                    ? (start - nextTick) / tickNanos + 1 : 0;
+                int ticks = (int)Math.min(due, maxCatchUp);
+                if (recorder != null) {
+                    recorder.frame();
+                }
+                for (int i = 0; i < ticks; i++) {
+                    if (recorder != null) {
+                        recorder.tick();
+                    }
+                    game.update();
+                }
+                if (due > ticks) {
+                    droppedTime(due - ticks);
+                    nextTick = start + tickNanos;
+                } else {
+                    nextTick += ticks * tickNanos;
+                }
+
+                boolean skip = System.nanoTime() >= nextTick
+                    && skipped < maxFrameSkip;
+                if (recorder != null) {
+                    recorder.render(skip);
+                }
+                if (skip) {
+                    skipped++;
+                } else {
+                    game.render();
+                    skipped = 0;
+                }
+
+                // the frame is due at the refresh following its start
+                long end = System.nanoTime();
+                long deadline = nextRefresh(origin, start);
+                frameDone(end - start, end > deadline, skip);
+
+                // sleep until the first refresh with a tick due
+                long wake = nextRefresh(origin, Math.max(end, nextTick - 1));
+                long now = System.nanoTime();
+                long idle = wake - now;
+                if (idle > 0) {
+                    Thread.sleep(idle / 1000000, (int)(idle % 1000000));
+                    slept(System.nanoTime() - now);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                running = false;
+                if (thread == Thread.currentThread()) {
+                    thread = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets a percentile of the time taken by the last frames, updates
+     * and rendering included.
+     *
+     * @param percentile the percentile, from <code>0</code> to
+     * <code>100</code>
+     * @return the frame time, in microseconds, or <code>0</code> if no
+     * frame ran yet
+     * @throws IllegalArgumentException if <code>percentile</code> is
+     * out of range
+     */
+    public synchronized int getFrameTime(int percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException();
+        }
+
+        int n = (int)Math.min(frames, FRAME_HISTORY);
+        if (n == 0) {
+            return 0;
+        }
+        System.arraycopy(frameTimes, 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        return sorted[(percentile * (n - 1) + 50) / 100];
+    }
+
+    /**
+     * Gets the number of frames run.
+     *
+     * @return the number of frames, rendered or skipped
+     */
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Gets the number of frames that ended after the display refresh
+     * they were meant for.
+     *
+     * @return the number of missed deadlines
+     */
+    public synchronized long getMissedDeadlines() {
+        return missedDeadlines;
+    }
+
+    /**
+     * Gets the number of frames left without rendering to let the
+     * updates catch up.
+     *
+     * @return the number of skipped frames
+     */
+    public synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Gets the number of ticks dropped because the updates fell behind
+     * by more than the catch up limit.
+     *
+     * @return the number of dropped ticks
+     */
+    public synchronized long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    /**
+     * Gets the share of time the loop spent sleeping since the
+     * statistics were last reset.
+     *
+     * @return the idle time, in percent of the time elapsed
+     */
+    public synchronized int getIdlePercent() {
+        long elapsed = System.nanoTime() - statsStart;
+        return elapsed <= 0 ? 0 : (int)(idleNanos * 100 / elapsed);
+    }
+
+    /**
+     * Prints the statistics on one line, for instance to compare the
+     * replays of a recording on two builds.
+     *
+     * @param out the stream to print to
+     */
+    public void printStats(PrintStream out) {
+        out.println("frames " + getFrameCount()
+                    + " p50 " + getFrameTime(50)
+                    + " p90 " + getFrameTime(90)
+                    + " p99 " + getFrameTime(99)
+                    + " max " + getFrameTime(100)
+                    + " us, missed " + getMissedDeadlines()
+                    + " skipped " + getSkippedFrames()
+                    + " dropped " + getDroppedTicks()
+                    + " idle " + getIdlePercent() + "%");
+    }
+
+    /**
+     * Clears all statistics.
+     */
+    public synchronized void resetStats() {
+        frames = 0;
+        missedDeadlines = 0;
+        skippedFrames = 0;
+        droppedTicks = 0;
+        idleNanos = 0;
+        statsStart = System.nanoTime();
+    }
+
+    // private implementation //
+
+    /** the game driven */
+    private final Game game;
+
+    /** length of a tick and of a display refresh */
+    private final long tickNanos, refreshNanos;
+
+    /** most ticks per frame */
+    private int maxCatchUp = 5;
+
+    /** most frames skipped in a row */
+    private int maxFrameSkip = 2;
+
+    /** the thread of the scheduler, <code>null</code> when stopped */
+    private Thread thread; // = null;
+
+    /** cleared to stop the loop */
+    private volatile boolean running; // = false;
+
+    /**
+     * Times of the last frames in microseconds, in a ring indexed
+     * by frame count
+     */
+    private final int[] frameTimes = new int[FRAME_HISTORY];
+
+    /** scratch space for the percentiles */
+    private final int[] sorted = new int[FRAME_HISTORY];
+
+    /** statistics since the last reset */
+    private long frames, missedDeadlines, skippedFrames, droppedTicks;
+    private long idleNanos; // = 0;
+    private long statsStart = System.nanoTime();
+
+    /**
+     * Returns the first display refresh strictly after a time.
+     */
+    private long nextRefresh(long origin, long time) {
+        return origin + ((time - origin) / refreshNanos + 1) * refreshNanos;
+    }
+
+    /**
+     * Runs the frames of a replay until the end of its log.
+     */
+    private void replay(InputReplayer replayer, long origin) {
+        while (running && replayer.nextFrame()) {
+            long start = System.nanoTime();
+            while (replayer.nextTick()) {
+                game.update();
+            }
+            boolean skip = replayer.skipRender();
+            if (!skip) {
+                game.render();
+            }
+
+            long end = System.nanoTime();
+            frameDone(end - start, end > nextRefresh(origin, start), skip);
+        }
+    }
+
+    /**
+     * Records a frame.
+     */
+    private synchronized void frameDone(long nanos, boolean missed,
+                                        boolean skip) {
+        frameTimes[(int)(frames % FRAME_HISTORY)] =
+            (int)Math.min(nanos / 1000, Integer.MAX_VALUE);
+        frames++;
+        if (missed) {
+            missedDeadlines++;
+        }
+        if (skip) {
+            skippedFrames++;
+        }
+    }
+
+    /**
+     * Records dropped ticks.
+     */
+    private synchronized void droppedTime(long ticks) {
+        droppedTicks += ticks;
+    }
+
+    /**
+     * Records time slept.
+     */
+    private synchronized void slept(long nanos) {
+        idleNanos += nanos;
+    }
+
+    /**
+     * Returns the refresh rate of the display, 60 Hz if unknown.
+     */
+    private static float getRefreshRate() {
+        MIDletContainer container = MIDletContainer.getMIDletContainerInstance();
+        if (container != null) {
+            float rate = container.getWindowManager().getDefaultDisplay()
+                .getRefreshRate();
+            if (rate >= 1) {
+                return rate;
+            }
+        }
+        return 60;
+    }
+}
@@ -53,6 +53,7 @@ public abstract class Layer {
     public void setPosition(int x, int y) {
         this.x = x;
         this.y = y;
+        boundsChanged();
     }
 
     /**
@@ -73,6 +74,7 @@ public abstract class Layer {
     public void move(int dx, int dy) {	
         x += dx;
         y += dy;
+        boundsChanged();
     }
 
     /**
@@ -202,6 +204,13 @@ public abstract class Layer {
         this.height = height;
     }
 
+    /**
+     * Called after the position of this Layer changed, for subclasses
+     * that track their bounds.
+     */
+    void boundsChanged() {
+    }
+
     /**
      * position of layer in x offset 
      */
@@ -0,0 +1,477 @@
+package javax.microedition.lcdui.game;
+
+/**
+ * A uniform grid index of <code>Sprite</code> collision rectangles,
+ * for finding the sprites that may collide without testing every pair.
+ * The index follows the sprites it holds: moving a sprite with
+ * <code>setPosition</code>, <code>move</code> or
+ * <code>setRefPixelPosition</code>, transforming it, or changing its
+ * image or collision rectangle updates its cells.
+ *
+ * <p>Queries report candidates whose collision rectangles intersect the
+ * query area or each other, and leave precise tests to
+ * <code>Sprite.collidesWith</code>. Invisible sprites are never
+ * reported. Queries do not allocate; adding sprites and moving them
+ * across cells only does so when the index grows.</p>
+ *
+ * <p>A sprite can be held by one index at a time. The index is not
+ * synchronized.</p>
+ */
+public class SpatialHash {
+
+    /**
+     * Creates an empty index.
+     *
+     * @param cellSize the width and height of the grid cells, ideally
+     * about the size of the typical sprite
+     * @throws IllegalArgumentException if <code>cellSize</code> is
+     * less than <code>1</code>
+     */
+    public SpatialHash(int cellSize) {
+        if (cellSize < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.cellSize = cellSize;
+        sprites = new Sprite[INITIAL_CAPACITY];
+        bounds = new int[INITIAL_CAPACITY * 4];
+        cells = new int[INITIAL_CAPACITY * 4];
+        firstNode = new int[INITIAL_CAPACITY];
+        stamps = new int[INITIAL_CAPACITY];
+
+        buckets = new int[INITIAL_BUCKETS];
+        fill(buckets, NONE);
+        growNodes(INITIAL_CAPACITY * 4);
+    }
+
+    /**
+     * Adds a sprite to this index.
+     *
+     * @param s the sprite to add
+     * @throws NullPointerException if <code>s</code> is <code>null</code>
+     * @throws IllegalArgumentException if <code>s</code> is already
+     * held by an index
+     */
+    public void add(Sprite s) {
+        if (s.index != null) { // throws NPE if s is null
+            throw new IllegalArgumentException();
+        }
+
+        if (count == sprites.length) {
+            growSprites();
+        }
+
+        int slot = count++;
+        sprites[slot] = s;
+        stamps[slot] = 0;
+        firstNode[slot] = NONE;
+        s.index = this;
+        s.indexSlot = slot;
+
+        insert(slot);
+    }
+
+    /**
+     * Removes a sprite from this index. Does nothing if the sprite is
+     * not held by this index.
+     *
+     * @param s the sprite to remove
+     * @throws NullPointerException if <code>s</code> is <code>null</code>
+     */
+    public void remove(Sprite s) {
+        if (s.index != this) { // throws NPE if s is null
+            return;
+        }
+
+        int slot = s.indexSlot;
+        unlink(slot);
+        s.index = null;
+
+        // the last sprite takes over the freed slot
+        int last = --count;
+        if (slot != last) {
+            Sprite moved = sprites[last];
+            sprites[slot] = moved;
+            moved.indexSlot = slot;
+            System.arraycopy(bounds, last * 4, bounds, slot * 4, 4);
+            System.arraycopy(cells, last * 4, cells, slot * 4, 4);
+            stamps[slot] = stamps[last];
+            firstNode[slot] = firstNode[last];
+            for (int n = firstNode[slot]; n != NONE; n = nodeSibling[n]) {
+                nodeSlot[n] = slot;
+            }
+        }
+        sprites[last] = null;
+    }
+
+    /**
+     * Returns the number of sprites held by this index.
+     *
+     * @return the number of sprites
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Finds the visible sprites whose collision rectangles intersect an
+     * area. Each sprite is reported once.
+     *
+     * @param x the horizontal location of the area
+     * @param y the vertical location of the area
+     * @param width the width of the area
+     * @param height the height of the area
+     * @param result array receiving the sprites
+     * @return the number of sprites stored in <code>result</code>, at
+     * most <code>result.length</code>
+     * @throws NullPointerException if <code>result</code> is
+     * <code>null</code>
+     */
+    public int getSprites(int x, int y, int width, int height,
+                          Sprite[] result) {
+        int capacity = result.length;
+        if (width <= 0 || height <= 0 || capacity == 0) {
+            return 0;
+        }
+
+        int right = x + width;
+        int bottom = y + height;
+        int cx1 = cell(x);
+        int cy1 = cell(y);
+        int cx2 = cell(right - 1);
+        int cy2 = cell(bottom - 1);
+
+        int stamp = nextStamp();
+        int found = 0;
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                for (int n = buckets[bucket(cx, cy)]; n != NONE;
+                     n = nodeNext[n]) {
+                    if (nodeCellX[n] != cx || nodeCellY[n] != cy) {
+                        continue; // another cell in the same bucket
+                    }
+
+                    int slot = nodeSlot[n];
+                    if (stamps[slot] == stamp) {
+                        continue; // already reported
+                    }
+                    stamps[slot] = stamp;
+
+                    int b = slot * 4;
+                    if (bounds[b] < right && x < bounds[b + 2]
+                        && bounds[b + 1] < bottom && y < bounds[b + 3]
+                        && sprites[slot].visible) {
+                        result[found++] = sprites[slot];
+                        if (found == capacity) {
+                            return found;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the pairs of visible sprites whose collision rectangles
+     * intersect. Each pair is reported once, its sprites being stored
+     * at the same position of <code>first</code> and
+     * <code>second</code>.
+     *
+     * @param first array receiving the first sprite of each pair
+     * @param second array receiving the second sprite of each pair
+     * @return the number of pairs stored, at most the length of the
+     * shorter array
+     * @throws NullPointerException if either array is <code>null</code>
+     */
+    public int getCandidatePairs(Sprite[] first, Sprite[] second) {
+        int capacity = first.length < second.length ? first.length
+                                                    : second.length;
+        int found = 0;
+        if (capacity == 0) {
+            return 0;
+        }
+
+        for (int i = 0; i < buckets.length; i++) {
+            for (int a = buckets[i]; a != NONE; a = nodeNext[a]) {
+                int slotA = nodeSlot[a];
+                if (!sprites[slotA].visible) {
+                    continue;
+                }
+
+                int cx = nodeCellX[a];
+                int cy = nodeCellY[a];
+                int ba = slotA * 4;
+                for (int b = nodeNext[a]; b != NONE; b = nodeNext[b]) {
+                    if (nodeCellX[b] != cx || nodeCellY[b] != cy) {
+                        continue;
+                    }
+
+                    int slotB = nodeSlot[b];
+                    int bb = slotB * 4;
+                    if (!(bounds[ba] < bounds[bb + 2]
+                          && bounds[bb] < bounds[ba + 2]
+                          && bounds[ba + 1] < bounds[bb + 3]
+                          && bounds[bb + 1] < bounds[ba + 3])
+                        || !sprites[slotB].visible) {
+                        continue;
+                    }
+
+                    // sprites sharing several cells are reported from
+                    // the cell holding the corner of their intersection
+                    int ix = bounds[ba] > bounds[bb] ? bounds[ba]
+                                                     : bounds[bb];
+                    int iy = bounds[ba + 1] > bounds[bb + 1]
+                        ? bounds[ba + 1] : bounds[bb + 1];
+                    if (cell(ix) != cx || cell(iy) != cy) {
+                        continue;
+                    }
+
+                    first[found] = sprites[slotA];
+                    second[found] = sprites[slotB];
+                    if (++found == capacity) {
+                        return found;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Brings the cells of a sprite up to date after its position,
+     * size or collision rectangle changed.
+     *
+     * @param s a sprite held by this index
+     */
+    void update(Sprite s) {
+        int slot = s.indexSlot;
+        int left = s.x + s.t_collisionRectX;
+        int top = s.y + s.t_collisionRectY;
+        int b = slot * 4;
+
+        bounds[b] = left;
+        bounds[b + 1] = top;
+        bounds[b + 2] = left + s.t_collisionRectWidth;
+        bounds[b + 3] = top + s.t_collisionRectHeight;
+
+        // most moves stay within the same cells
+        int c = slot * 4;
+        if (cells[c] == cell(left) && cells[c + 1] == cell(top)
+            && cells[c + 2] == lastCell(left, bounds[b + 2])
+            && cells[c + 3] == lastCell(top, bounds[b + 3])) {
+            return;
+        }
+
+        unlink(slot);
+        insert(slot);
+    }
+
+    // private implementation //
+
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int INITIAL_BUCKETS = 64;
+
+    private final int cellSize;
+
+    /** the sprites held, in slots 0 to count - 1 */
+    private Sprite[] sprites;
+    private int count; // = 0;
+
+    /** collision rectangle of each slot: left, top, right, bottom */
+    private int[] bounds;
+
+    /** cell range of each slot: first column, first row, last column,
+        last row */
+    private int[] cells;
+
+    /** first node of each slot, the others follow nodeSibling */
+    private int[] firstNode;
+
+    /** per slot stamp of the last query that reported it */
+    private int[] stamps;
+    private int stamp; // = 0;
+
+    /** first node of each bucket, the others follow nodeNext */
+    private int[] buckets;
+
+    /** nodes, one per cell covered by a sprite */
+    private int[] nodeSlot, nodeCellX, nodeCellY;
+    private int[] nodeNext, nodePrev, nodeSibling;
+    private int freeNode = NONE;
+    private int nodeCount; // = 0;
+
+    /**
+     * Computes the cell range of a slot from its bounds and links a
+     * node into every cell of the range.
+     */
+    private void insert(int slot) {
+        Sprite s = sprites[slot];
+        int b = slot * 4;
+        int left = s.x + s.t_collisionRectX;
+        int top = s.y + s.t_collisionRectY;
+        bounds[b] = left;
+        bounds[b + 1] = top;
+        bounds[b + 2] = left + s.t_collisionRectWidth;
+        bounds[b + 3] = top + s.t_collisionRectHeight;
+
+        int cx1 = cell(left);
+        int cy1 = cell(top);
+        int cx2 = lastCell(left, bounds[b + 2]);
+        int cy2 = lastCell(top, bounds[b + 3]);
+        int c = slot * 4;
+        cells[c] = cx1;
+        cells[c + 1] = cy1;
+        cells[c + 2] = cx2;
+        cells[c + 3] = cy2;
+
+        int cellCount = (cx2 - cx1 + 1) * (cy2 - cy1 + 1);
+        if (nodeCount + cellCount > buckets.length * 2) {
+            rehash(buckets.length * 2 > nodeCount + cellCount
+                   ? buckets.length * 2
+                   : Integer.highestOneBit(nodeCount + cellCount) * 2);
+        }
+
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                int n = allocateNode();
+                nodeSlot[n] = slot;
+                nodeCellX[n] = cx;
+                nodeCellY[n] = cy;
+                nodeSibling[n] = firstNode[slot];
+                firstNode[slot] = n;
+                linkToBucket(n);
+            }
+        }
+    }
+
+    /**
+     * Unlinks and frees the nodes of a slot.
+     */
+    private void unlink(int slot) {
+        int n = firstNode[slot];
+        while (n != NONE) {
+            int next = nodeSibling[n];
+
+            if (nodePrev[n] != NONE) {
+                nodeNext[nodePrev[n]] = nodeNext[n];
+            } else {
+                buckets[bucket(nodeCellX[n], nodeCellY[n])] = nodeNext[n];
+            }
+            if (nodeNext[n] != NONE) {
+                nodePrev[nodeNext[n]] = nodePrev[n];
+            }
+
+            nodeNext[n] = freeNode;
+            freeNode = n;
+            nodeCount--;
+            n = next;
+        }
+        firstNode[slot] = NONE;
+    }
+
+    private void linkToBucket(int n) {
+        int i = bucket(nodeCellX[n], nodeCellY[n]);
+        int head = buckets[i];
+        nodeNext[n] = head;
+        nodePrev[n] = NONE;
+        if (head != NONE) {
+            nodePrev[head] = n;
+        }
+        buckets[i] = n;
+    }
+
+    private int allocateNode() {
+        if (freeNode == NONE) {
+            growNodes(nodeSlot.length * 2);
+        }
+        int n = freeNode;
+        freeNode = nodeNext[n];
+        nodeCount++;
+        return n;
+    }
+
+    /**
+     * Grows the node pool, adding the new nodes to the free list.
+     */
+    private void growNodes(int size) {
+        int old = (nodeSlot != null) ? nodeSlot.length : 0;
+        nodeSlot = grow(nodeSlot, size);
+        nodeCellX = grow(nodeCellX, size);
+        nodeCellY = grow(nodeCellY, size);
+        nodeNext = grow(nodeNext, size);
+        nodePrev = grow(nodePrev, size);
+        nodeSibling = grow(nodeSibling, size);
+        for (int n = size; --n >= old; ) {
+            nodeNext[n] = freeNode;
+            freeNode = n;
+        }
+    }
+
+    private void growSprites() {
+        int size = sprites.length * 2;
+        Sprite[] newSprites = new Sprite[size];
+        System.arraycopy(sprites, 0, newSprites, 0, count);
+        sprites = newSprites;
+        bounds = grow(bounds, size * 4);
+        cells = grow(cells, size * 4);
+        firstNode = grow(firstNode, size);
+        stamps = grow(stamps, size);
+    }
+
+    /**
+     * Spreads the nodes over a new number of buckets, a power of two.
+     */
+    private void rehash(int size) {
+        buckets = new int[size];
+        fill(buckets, NONE);
+        for (int slot = 0; slot < count; slot++) {
+            for (int n = firstNode[slot]; n != NONE; n = nodeSibling[n]) {
+                linkToBucket(n);
+            }
+        }
+    }
+
+    private int nextStamp() {
+        if (++stamp == 0) {
+            // wrapped around, forget every previous query
+            fill(stamps, 0);
+            stamp = 1;
+        }
+        return stamp;
+    }
+
+    private int bucket(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & (buckets.length - 1);
+    }
+
+    /**
+     * Returns the cell holding a coordinate, rounding down.
+     */
+    private int cell(int v) {
+        return (v >= 0) ? v / cellSize : (v + 1) / cellSize - 1;
+    }
+
+    /**
+     * Returns the last cell of an extent. Empty extents cover the cell
+     * of their start.
+     */
+    private int lastCell(int start, int end) {
+        return cell(end > start ? end - 1 : start);
+    }
+
+    private static int[] grow(int[] array, int size) {
+        int[] newArray = new int[size];
+        if (array != null) {
+            System.arraycopy(array, 0, newArray, 0, array.length);
+        }
+        return newArray;
+    }
+
+    private static void fill(int[] array, int value) {
+        for (int i = array.length; --i >= 0; ) {
+            array[i] = value;
+        }
+    }
+}
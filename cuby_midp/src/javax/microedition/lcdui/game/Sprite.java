@@ -4,6 +4,7 @@ package javax.microedition.lcdui.game;
 import javax.microedition.lcdui.Image;
 import javax.microedition.lcdui.Graphics;
 
+import com.cuby.lcdui.GraphicsAccess;
 
 
 /**
@@ -222,6 +223,13 @@ public class Sprite extends Layer
     public Sprite(Image image) {
         super(image.getWidth(), image.getHeight());
 
+        initializeFrames(image, image.getWidth(), image.getHeight(), false);
+
+        // initialize collision rectangle
+        initCollisionRectBounds();
+
+        // current transformation is TRANS_NONE
+        setTransformImpl(TRANS_NONE);
     }
 
     /**
@@ -257,7 +265,6 @@ public class Sprite extends Layer
      * height is not an integer multiple of the <code>frameHeight</code>
      */
     public Sprite(Image image, int frameWidth, int frameHeight) {
-
         super(frameWidth, frameHeight);
         // if img is null img.getWidth() will throw NullPointerException
         if ((frameWidth < 1 || frameHeight < 1) ||
@@ -266,8 +273,13 @@ public class Sprite extends Layer
              throw new IllegalArgumentException();
         }
 
+        initializeFrames(image, frameWidth, frameHeight, false);
 
+        // initialize collision rectangle
+        initCollisionRectBounds();
 
+        // current transformation is TRANS_NONE
+        setTransformImpl(TRANS_NONE);
     }
 
     /**
@@ -282,17 +294,46 @@ public class Sprite extends Layer
      *
      */
     public Sprite(Sprite s) {
-
         super(s != null ? s.getWidth() : 0,
                      s != null ? s.getHeight() : 0);
-
-
         if (s == null) {
             throw new NullPointerException();
         }
 
-     
-        
+        // the frame tables are never written to once built,
+        // so they can be shared
+        this.sourceImage = s.sourceImage;
+        this.numberFrames = s.numberFrames;
+        this.frameCoordsX = s.frameCoordsX;
+        this.frameCoordsY = s.frameCoordsY;
+        this.srcFrameWidth = s.srcFrameWidth;
+        this.srcFrameHeight = s.srcFrameHeight;
+        this.collisionMasks = s.collisionMasks;
+
+        // the sequence buffer is reused by setFrameSequence,
+        // so it has to be copied
+        this.customSequenceDefined = s.customSequenceDefined;
+        this.sequenceLength = s.sequenceLength;
+        if (s.customSequenceDefined) {
+            this.frameSequence = new int[s.sequenceLength];
+            System.arraycopy(s.frameSequence, 0, this.frameSequence, 0,
+                             s.sequenceLength);
+        }
+        setSequenceIndex(s.sequenceIndex);
+
+        this.x = s.getX();
+        this.y = s.getY();
+        this.dRefX = s.dRefX;
+        this.dRefY = s.dRefY;
+
+        this.collisionRectX = s.collisionRectX;
+        this.collisionRectY = s.collisionRectY;
+        this.collisionRectWidth = s.collisionRectWidth;
+        this.collisionRectHeight = s.collisionRectHeight;
+
+        setTransformImpl(s.t_currentTransformation);
+        this.cacheTransforms = s.cacheTransforms;
+        this.setVisible(s.isVisible());
     }
 
 
@@ -329,7 +370,9 @@ public class Sprite extends Layer
      * @see #getRefPixelY
      */
     public void defineReferencePixel(int inp_x, int inp_y) {
-
+        dRefX = inp_x;
+        dRefY = inp_y;
+        computeTransformedRefPixel();
     }
     
     /**
@@ -343,8 +386,10 @@ public class Sprite extends Layer
      * @see #getRefPixelY
      */         
     public void setRefPixelPosition(int inp_x, int inp_y) {
-
-
+        // update x and y
+        x = inp_x - t_refX;
+        y = inp_y - t_refY;
+        boundsChanged();
     }
 
     /**
@@ -356,7 +401,7 @@ public class Sprite extends Layer
      * @see #getRefPixelY
      */         
     public int getRefPixelX() {
-        return 0;
+        return x + t_refX;
     }
         
     /**
@@ -368,7 +413,7 @@ public class Sprite extends Layer
      * @see #getRefPixelX
      */         
     public int getRefPixelY() {
-        return 0;
+        return y + t_refY;
     }
 
     /**
@@ -388,7 +433,10 @@ public class Sprite extends Layer
      * @see #getFrame
      */
     public void setFrame(int inp_sequenceIndex) {
-
+        if (inp_sequenceIndex < 0 || inp_sequenceIndex >= sequenceLength) {
+            throw new IndexOutOfBoundsException();
+        }
+        setSequenceIndex(inp_sequenceIndex);
     }
 
     /**
@@ -401,7 +449,7 @@ public class Sprite extends Layer
      * @see #setFrame
      */
     public final int getFrame() {
-        return 0;
+        return sequenceIndex;
     }
 
     /**
@@ -414,7 +462,7 @@ public class Sprite extends Layer
      * @see #getFrameSequenceLength
      */
     public int getRawFrameCount() {
-        return 0;
+        return numberFrames;
     }
 
     /**
@@ -427,7 +475,7 @@ public class Sprite extends Layer
      * @see #getRawFrameCount
      */
     public int getFrameSequenceLength() {
-        return 0;
+        return sequenceLength;
     }
 
     /**
@@ -441,7 +489,8 @@ public class Sprite extends Layer
      * @see #prevFrame
      */
     public void nextFrame() {
-
+        int next = sequenceIndex + 1;
+        setSequenceIndex(next < sequenceLength ? next : 0);
     }
 
     /**
@@ -455,7 +504,8 @@ public class Sprite extends Layer
      * @see #nextFrame
      */
     public void prevFrame() {
-
+        setSequenceIndex((sequenceIndex == 0 ? sequenceLength
+                                             : sequenceIndex) - 1);
     }
 
     /**
@@ -484,8 +534,22 @@ public class Sprite extends Layer
             throw new NullPointerException();
         }
 
-
-
+        if (visible) {
+            Image frame = getTransformedFrame();
+            if (frame != null) {
+                // the frame is stored with the transform applied
+                g.drawImage(frame, x, y, Graphics.TOP | Graphics.LEFT);
+                return;
+            }
+
+            // the frame origin and the transform are kept up to
+            // date by the methods changing them
+            g.drawRegion(sourceImage, frameX, frameY,
+                         srcFrameWidth, srcFrameHeight,
+                         t_currentTransformation,
+                         x, y,
+                         Graphics.TOP | Graphics.LEFT);
+        }
     }
 
     /**
@@ -521,7 +585,33 @@ public class Sprite extends Layer
      */
     public void setFrameSequence(int sequence[]) {
 
+        if (sequence == null) {
+            // revert to the default sequence
+            customSequenceDefined = false;
+            sequenceLength = numberFrames;
+            setSequenceIndex(0);
+            return;
+        }
+
+        int len = sequence.length;
+        if (len < 1) {
+             throw new IllegalArgumentException();
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (sequence[i] < 0 || sequence[i] >= numberFrames) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+        }
 
+        // the previous buffer is reused when large enough
+        if (frameSequence == null || frameSequence.length < len) {
+            frameSequence = new int[len];
+        }
+        System.arraycopy(sequence, 0, frameSequence, 0, len);
+        customSequenceDefined = true;
+        sequenceLength = len;
+        setSequenceIndex(0);
     }
     
     /**
@@ -583,7 +673,6 @@ public class Sprite extends Layer
      * multiple of the <code>frameHeight</code>
      */
     public void setImage(Image img, int frameWidth, int frameHeight) {
-
         // if image is null image.getWidth() will throw NullPointerException
         if ((frameWidth < 1 || frameHeight < 1) ||
             ((img.getWidth() % frameWidth) != 0) ||
@@ -591,8 +680,42 @@ public class Sprite extends Layer
              throw new IllegalArgumentException();
         }
 
- 
+        int noOfFrames = 
+          (img.getWidth() / frameWidth)*(img.getHeight() / frameHeight);
+
+        boolean maintainCurFrame = true;
+        if (noOfFrames < numberFrames) {
+            // use default frame sequence
+            maintainCurFrame = false;
+            customSequenceDefined = false;
+        }
+
+        if (! ((srcFrameWidth == frameWidth) &&
+               (srcFrameHeight == frameHeight))) {
 
+            // the reference pixel is to remain stationary
+            int oldX = this.x + t_refX;
+            int oldY = this.y + t_refY;
+
+            setWidthImpl(frameWidth);
+            setHeightImpl(frameHeight);
+
+            initializeFrames(img, frameWidth, frameHeight, maintainCurFrame);
+
+            // initialize collision rectangle
+            initCollisionRectBounds();
+
+            // transformed width and height, reference pixel
+            // and collision rectangle
+            setTransformImpl(t_currentTransformation);
+
+            // set the new x and y position of the sprite
+            this.x = oldX - t_refX;
+            this.y = oldY - t_refY;
+            boundsChanged();
+        } else {
+            initializeFrames(img, frameWidth, frameHeight, maintainCurFrame);
+        }
     }
 
     /**
@@ -620,12 +743,18 @@ public class Sprite extends Layer
      */
     public void defineCollisionRectangle(int inp_x, int inp_y, 
                                          int width, int height) {
-
         if (width < 0 || height < 0) {
              throw new IllegalArgumentException();
         }
 
+        collisionRectX = inp_x;
+        collisionRectY = inp_y;
+        collisionRectWidth = width;
+        collisionRectHeight = height;
 
+        // calculate transformed collision rectangle
+        computeTransformedCollisionRect();
+        boundsChanged();
     }
 
     /**
@@ -668,7 +797,43 @@ public class Sprite extends Layer
      *
      */
     public void setTransform(int transform) {
-        
+        if (transform < 0 || transform > 7) {
+            throw new IllegalArgumentException();
+        }
+
+        // the reference pixel is to remain stationary
+        int refX = x + t_refX;
+        int refY = y + t_refY;
+
+        setTransformImpl(transform);
+
+        x = refX - t_refX;
+        y = refY - t_refY;
+        boundsChanged();
+    }
+
+    /**
+     * Sets whether this Sprite paints transformed frames from a cache.
+     * With caching on, a frame is stored with the current transform
+     * applied the first time it is painted with it, and later paints
+     * copy its rows as they are instead of reading the frame in
+     * transformed order. This pays off for sprites that keep a
+     * rotation or mirroring for many frames.
+     * <p>
+     * Stored frames are kept with the source image and shared by
+     * every Sprite painting from it; they are dropped when image memory
+     * runs short and stored again on demand. Frames of a mutable image
+     * are never stored. By default, caching is off.
+     * <p>
+     * This method is a cuby extension to MIDP.
+     *
+     * @param cache <code>true</code> to paint transformed frames from
+     * the cache
+     * @see #setTransform
+     */
+    public void setTransformCaching(boolean cache) {
+        cacheTransforms = cache;
+        transformedFrame = null;
     }
 
     /**
@@ -699,10 +864,50 @@ public class Sprite extends Layer
      */
     public final boolean collidesWith(Sprite s, boolean pixelLevel) 
     {
-        
-   
-        return false;
 
+        // check if either of the Sprite's are not visible
+        if (!(s.visible && this.visible)) {
+            return false;
+        }
+
+        // these are package private 
+        // and can be accessed directly
+        int otherLeft    = s.x + s.t_collisionRectX;
+        int otherTop     = s.y + s.t_collisionRectY;
+        int otherRight   = otherLeft + s.t_collisionRectWidth;
+        int otherBottom  = otherTop  + s.t_collisionRectHeight;
+
+        int left   = this.x + this.t_collisionRectX;
+        int top    = this.y + this.t_collisionRectY;
+        int right  = left + this.t_collisionRectWidth;
+        int bottom = top  + this.t_collisionRectHeight;
+
+        // check if the collision rectangles of the two sprites intersect
+        if (!intersectRect(otherLeft, otherTop, otherRight, otherBottom,
+                           left, top, right, bottom)) {
+            return false;
+        }
+
+        if (!pixelLevel) {
+            return true;
+        }
+
+        // collision rectangles may extend past the frames,
+        // pixels outside of the frames never collide
+        int x1 = max(max(otherLeft, left), max(s.x, this.x));
+        int y1 = max(max(otherTop, top), max(s.y, this.y));
+        int x2 = min(min(otherRight, right),
+                     min(s.x + s.width, this.x + this.width));
+        int y2 = min(min(otherBottom, bottom),
+                     min(s.y + s.height, this.y + this.height));
+
+        return CollisionMask.overlaps(getCollisionMask(),
+                                      CollisionMask.words(this.width),
+                                      x1 - this.x, y1 - this.y,
+                                      s.getCollisionMask(),
+                                      CollisionMask.words(s.width),
+                                      x1 - s.x, y1 - s.y,
+                                      x2 - x1, y2 - y1);
     }
 
     /**
@@ -733,9 +938,31 @@ public class Sprite extends Layer
      */
     public final boolean collidesWith(TiledLayer t, boolean pixelLevel) {
 
+        // check if either this Sprite or the TiledLayer is not visible
+        if (!(t.visible && this.visible)) {
             return false;
+        }
+
+        int left   = this.x + this.t_collisionRectX;
+        int top    = this.y + this.t_collisionRectY;
+        int right  = left + this.t_collisionRectWidth;
+        int bottom = top  + this.t_collisionRectHeight;
+
+        if (!pixelLevel) {
+            return t.collidesWithCells(left, top, right, bottom, 
+                                       false, null, 0, 0, 0);
+        }
 
+        // pixels outside of the frame never collide
+        left = max(left, this.x);
+        top = max(top, this.y);
+        right = min(right, this.x + this.width);
+        bottom = min(bottom, this.y + this.height);
 
+        return t.collidesWithCells(left, top, right, bottom, true,
+                                   getCollisionMask(),
+                                   CollisionMask.words(this.width),
+                                   this.x, this.y);
     }
 
     /**
@@ -771,14 +998,469 @@ public class Sprite extends Layer
     public final boolean collidesWith(Image image, int inp_x, 
                                       int inp_y, boolean pixelLevel) {
 
-   
-        return false;
+        // check if this Sprite is not visible
+        if (!visible) {
+            return false;
+        }
+
+        // if image is null 
+        // image.getWidth() will throw NullPointerException
+        int otherLeft    = inp_x;
+        int otherTop     = inp_y;
+        int otherRight   = inp_x + image.getWidth();
+        int otherBottom  = inp_y + image.getHeight();
+
+        int left   = x + t_collisionRectX;
+        int top    = y + t_collisionRectY;
+        int right  = left + t_collisionRectWidth;
+        int bottom = top  + t_collisionRectHeight;
+
+        // first check if the collision rectangles of the two sprites intersect
+        if (!intersectRect(otherLeft, otherTop, otherRight, otherBottom,
+                           left, top, right, bottom)) {
+            return false;
+        }
+
+        if (!pixelLevel) {
+            return true;
+        }
+
+        // pixels outside of the frame never collide
+        int x1 = max(max(otherLeft, left), x);
+        int y1 = max(max(otherTop, top), y);
+        int x2 = min(min(otherRight, right), x + width);
+        int y2 = min(min(otherBottom, bottom), y + height);
+
+        long[] imageMask = null;
+        if (!CollisionMask.isOpaque(image)) {
+            imageMask = CollisionMask.get(image);
+        }
 
+        return CollisionMask.overlaps(getCollisionMask(),
+                                      CollisionMask.words(width),
+                                      x1 - x, y1 - y,
+                                      imageMask,
+                                      CollisionMask.words(image.getWidth()),
+                                      x1 - inp_x, y1 - inp_y,
+                                      x2 - x1, y2 - y1);
     }
 
 
-  
-  
+    // ----- private -----
 
-}
+    /**
+     * Create the frame tables, one entry per raw frame, with the
+     * location of each frame within the image.
+     *
+     * @param image the image holding the raw frames
+     * @param fWidth width of a frame
+     * @param fHeight height of a frame
+     * @param maintainCurFrame <code>true</code> if the current frame
+     * and a custom frame sequence are to be kept
+     */
+    private void initializeFrames(Image image, int fWidth, 
+                          int fHeight, boolean maintainCurFrame) {
+
+        int imageW = image.getWidth();
+        int imageH = image.getHeight();
+
+        int numHorizontalFrames = imageW / fWidth;
+        int numVerticalFrames   = imageH / fHeight;
+
+        sourceImage = image;
+        transformedFrame = null;
+
+        srcFrameWidth = fWidth;
+        srcFrameHeight = fHeight;
+
+        numberFrames = numHorizontalFrames*numVerticalFrames;
+
+        frameCoordsX = new int[numberFrames];
+        frameCoordsY = new int[numberFrames];
+
+        // masks of the previous frames no longer apply
+        collisionMasks = null;
+
+        int currentFrame = 0;
+
+        for (int yy = 0; yy < imageH; yy += fHeight) {
+            for (int xx = 0; xx < imageW; xx += fWidth) {
+
+                frameCoordsX[currentFrame] = xx;
+                frameCoordsY[currentFrame] = yy;
+
+                currentFrame++;
+
+            }
+        }
+
+        if (!customSequenceDefined) {
+            sequenceLength = numberFrames;
+        }
+
+        setSequenceIndex(maintainCurFrame ? sequenceIndex : 0);
+    }
+
+    /**
+     * initialize the collision rectangle to the frame bounds
+     */
+    private void initCollisionRectBounds() {
+
+        // reset x and y of collision rectangle
+        collisionRectX = 0;
+        collisionRectY = 0;
+
+        // intialize the collision rectangle bounds to that of the sprite
+        collisionRectWidth = this.srcFrameWidth;
+        collisionRectHeight = this.srcFrameHeight;
+
+    }
+
+    /**
+     * Makes <code>index</code> the current sequence index and looks
+     * up the location of its frame, so that painting needs no lookups.
+     *
+     * @param index the new sequence index, valid for the current sequence
+     */
+    private void setSequenceIndex(int index) {
+        sequenceIndex = index;
+        currentFrame = customSequenceDefined ? frameSequence[index] : index;
+        int fx = frameCoordsX[currentFrame];
+        int fy = frameCoordsY[currentFrame];
+        if (fx != frameX || fy != frameY) {
+            frameX = fx;
+            frameY = fy;
+            transformedFrame = null;
+        }
+    }
+
+    /**
+     * Returns the collision mask of the current frame with the current
+     * transform, built on first use.
+     *
+     * @return the mask, <code>null</code> if the image is fully opaque
+     */
+    private long[] getCollisionMask() {
+        if (CollisionMask.isOpaque(sourceImage)) {
+            return null;
+        }
+
+        if (collisionMasks == null) {
+            collisionMasks = new long[numberFrames << 3][];
+        }
+
+        int i = (currentFrame << 3) | t_currentTransformation;
+        long[] mask = collisionMasks[i];
+        if (mask == null) {
+            mask = CollisionMask.build(sourceImage, frameX, frameY,
+                                       srcFrameWidth, srcFrameHeight,
+                                       t_currentTransformation);
+            collisionMasks[i] = mask;
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the current frame stored with the current transform
+     * applied, if this sprite paints from the cache.
+     *
+     * @return the transformed frame, <code>null</code> if the frame is
+     * to be painted from the source image
+     */
+    Image getTransformedFrame() {
+        if (!cacheTransforms || t_currentTransformation == TRANS_NONE) {
+            return null;
+        }
+
+        // the frame looked up last stands until the frame or the
+        // transform changes or the stored frames are dropped
+        GraphicsAccess access = GraphicsAccess.getInstance();
+        int generation = access.getRegionGeneration(sourceImage);
+        if (transformedFrame == null
+            || transformedFrameGeneration != generation) {
+            transformedFrame = access.getTransformedRegion(
+                sourceImage, frameX, frameY, srcFrameWidth, srcFrameHeight,
+                t_currentTransformation);
+            transformedFrameGeneration = generation;
+        }
+        return transformedFrame;
+    }
 
+    /**
+     * Keeps the cells of this sprite in its spatial index up to date.
+     */
+    void boundsChanged() {
+        if (index != null) {
+            index.update(this);
+        }
+    }
+
+    /**
+     * Detect rectangle intersection
+     * 
+     * @param r1x1 left co-ordinate of first rectangle
+     * @param r1y1 top co-ordinate of first rectangle
+     * @param r1x2 right co-ordinate of first rectangle
+     * @param r1y2 bottom co-ordinate of first rectangle
+     * @param r2x1 left co-ordinate of second rectangle
+     * @param r2y1 top co-ordinate of second rectangle
+     * @param r2x2 right co-ordinate of second rectangle
+     * @param r2y2 bottom co-ordinate of second rectangle
+     * @return true if there is rectangle intersection
+     */
+    static boolean intersectRect(int r1x1, int r1y1, int r1x2, int r1y2, 
+                                 int r2x1, int r2y1, int r2x2, int r2y2) {
+        if (r2x1 >= r1x2 || r2y1 >= r1y2 || r2x2 <= r1x1 || r2y2 <= r1y1) {
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    private static int max(int a, int b) {
+        return a > b ? a : b;
+    }
+
+    private static int min(int a, int b) {
+        return a < b ? a : b;
+    }
+
+    /**
+     * Applies a transform to the bounds, the reference pixel and the
+     * collision rectangle, leaving the position unchanged.
+     *
+     * @param transform the transform to be applied
+     */
+    private void setTransformImpl(int transform) {
+        t_currentTransformation = transform;
+        transformedFrame = null;
+
+        if ((transform & TRANS_SWAP_AXIS) != 0) {
+            setWidthImpl(srcFrameHeight);
+            setHeightImpl(srcFrameWidth);
+        } else {
+            setWidthImpl(srcFrameWidth);
+            setHeightImpl(srcFrameHeight);
+        }
+
+        computeTransformedRefPixel();
+        computeTransformedCollisionRect();
+    }
+
+    /**
+     * Computes the location of the reference pixel within the
+     * transformed frame.
+     */
+    private void computeTransformedRefPixel() {
+        int t = t_currentTransformation;
+        int fx = ((t & TRANS_FLIP_X) != 0) ? srcFrameWidth - 1 - dRefX 
+                                           : dRefX;
+        int fy = ((t & TRANS_FLIP_Y) != 0) ? srcFrameHeight - 1 - dRefY 
+                                           : dRefY;
+        if ((t & TRANS_SWAP_AXIS) != 0) {
+            t_refX = fy;
+            t_refY = fx;
+        } else {
+            t_refX = fx;
+            t_refY = fy;
+        }
+    }
+
+    /**
+     * Computes the collision rectangle relative to the transformed frame.
+     */
+    private void computeTransformedCollisionRect() {
+        int t = t_currentTransformation;
+        int fx = ((t & TRANS_FLIP_X) != 0) 
+            ? srcFrameWidth - (collisionRectX + collisionRectWidth)
+            : collisionRectX;
+        int fy = ((t & TRANS_FLIP_Y) != 0) 
+            ? srcFrameHeight - (collisionRectY + collisionRectHeight)
+            : collisionRectY;
+        if ((t & TRANS_SWAP_AXIS) != 0) {
+            t_collisionRectX = fy;
+            t_collisionRectY = fx;
+            t_collisionRectWidth = collisionRectHeight;
+            t_collisionRectHeight = collisionRectWidth;
+        } else {
+            t_collisionRectX = fx;
+            t_collisionRectY = fy;
+            t_collisionRectWidth = collisionRectWidth;
+            t_collisionRectHeight = collisionRectHeight;
+        }
+    }
+
+    // ----- private transform bits -----
+
+    /**
+     * The transform mirrors the frame horizontally
+     */
+    private static final int TRANS_FLIP_X = 2;
+
+    /**
+     * The transform mirrors the frame vertically
+     */
+    private static final int TRANS_FLIP_Y = 1;
+
+    /**
+     * The transform swaps the axes of the frame
+     */
+    private static final int TRANS_SWAP_AXIS = 4;
+
+    // ----- private frame state -----
+
+    /**
+     * Source image
+     */
+    Image sourceImage;
+
+    /**
+     * The number of frames
+     */
+    int numberFrames; // = 0;
+
+    /**
+     * list of X coordinates of individual frames
+     */
+    int[] frameCoordsX;
+    /**
+     * list of Y coordinates of individual frames
+     */
+    int[] frameCoordsY;
+
+    /**
+     * Width of each frame in the source image
+     */
+    int srcFrameWidth;
+
+    /**
+     * Height of each frame in the source image
+     */
+    int srcFrameHeight;
+
+    /**
+     * The custom frame sequence, valid up to <code>sequenceLength</code>.
+     * <code>null</code> until a custom sequence is first defined.
+     */
+    private int[] frameSequence;
+
+    /**
+     * <code>true</code> if a custom frame sequence is in use,
+     * <code>false</code> for the default sequence
+     */
+    private boolean customSequenceDefined; // = false;
+
+    /**
+     * Length of the frame sequence in use
+     */
+    private int sequenceLength; // = 0;
+
+    /**
+     * Current index in the frame sequence
+     */
+    private int sequenceIndex; // = 0;
+
+    /**
+     * Raw frame index at the current sequence index
+     */
+    int currentFrame; // = 0;
+
+    /**
+     * Location of the current frame in the source image
+     */
+    int frameX, frameY; // = 0;
+
+    /**
+     * Collision masks of the frames, indexed by
+     * <code>frame << 3 | transform</code>, built on first use.
+     * Shared with copies of this sprite.
+     */
+    long[][] collisionMasks; // = null;
+
+    // ----- reference point -----
+
+    /**
+     * Horizontal offset of the reference point
+     * from the top left of the sprite.
+     */
+    int dRefX; // =0
+
+    /**
+     * Vertical offset of the reference point
+     * from the top left of the sprite.
+     */
+    int dRefY; // =0
+
+    /**
+     * Offset of the reference point from the top left
+     * of the transformed sprite
+     */
+    int t_refX, t_refY; // = 0;
+
+    // ----- collision rectangle -----
+
+    /**
+     * Horizontal offset of the top left of the collision 
+     * rectangle from the top left of the sprite.
+     */
+    int collisionRectX; // =0
+
+    /**
+     * Vertical offset of the top left of the collision 
+     * rectangle from the top left of the sprite.
+     */
+    int collisionRectY; // =0
+
+    /**
+     * Width of the bounding rectangle for collision detection.
+     */
+    int collisionRectWidth;
+
+    /**
+     * Height of the bounding rectangle for collision detection.
+     */
+    int collisionRectHeight;
+
+    // ----- transformation -----
+
+    /**
+     * The current transformation in effect.
+     */
+    int t_currentTransformation;
+
+    /**
+     * Collision rectangle relative to the top left
+     * of the transformed sprite
+     */
+    int t_collisionRectX;
+    int t_collisionRectY;
+    int t_collisionRectWidth;
+    int t_collisionRectHeight;
+
+    /**
+     * <code>true</code> if transformed frames are painted from the
+     * cache of the source image
+     */
+    private boolean cacheTransforms; // = false;
+
+    /**
+     * The current frame with the current transform applied, as last
+     * looked up in the cache, and the generation of the stored frames
+     * of the source image it was looked up in; <code>null</code> until
+     * looked up
+     */
+    private Image transformedFrame; // = null;
+    private int transformedFrameGeneration; // = 0;
+
+    // ----- spatial index -----
+
+    /**
+     * The index holding this sprite, <code>null</code> if none
+     */
+    SpatialHash index; // = null;
+
+    /**
+     * Slot of this sprite in <code>index</code>
+     */
+    int indexSlot; // = 0;
+}
@@ -0,0 +1,248 @@
+package javax.microedition.lcdui.game;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+import com.cuby.lcdui.GraphicsAccess;
+
+/**
+ * Collects the sprites of consecutive layers and draws them grouped by
+ * source image and transform, each group with a single batched blit.
+ *
+ * <p>Sprites are added from the back to the front. A sprite joins an
+ * existing group only if that does not move it behind a sprite it may
+ * overlap and was to be drawn over; otherwise it starts a new group
+ * after the existing ones. Overlaps are found through a coarse grid of
+ * cells, each holding the last group drawn over it. Within a group
+ * sprites keep their order, so the result is the same as drawing them
+ * one by one.</p>
+ *
+ * <p>The arrays of a batch are reused from frame to frame.</p>
+ */
+final class SpriteBatch {
+
+    /**
+     * Adds a visible sprite to the batch, in front of the sprites
+     * already added.
+     *
+     * @param s the sprite
+     */
+    void add(Sprite s) {
+        if (count == sprites.length) {
+            grow();
+        }
+
+        // sprites painting from stored frames are grouped by frame
+        Image image = s.getTransformedFrame();
+        int transform = Sprite.TRANS_NONE;
+        if (image == null) {
+            image = s.sourceImage;
+            transform = s.t_currentTransformation;
+        }
+        int x1 = s.x >> CELL_SHIFT;
+        int y1 = s.y >> CELL_SHIFT;
+        int x2 = (s.x + s.width - 1) >> CELL_SHIFT;
+        int y2 = (s.y + s.height - 1) >> CELL_SHIFT;
+        if (x2 - x1 >= GRID_SIZE) {
+            x2 = x1 + GRID_SIZE - 1;
+        }
+        if (y2 - y1 >= GRID_SIZE) {
+            y2 = y1 + GRID_SIZE - 1;
+        }
+
+        int group;
+        if (groups > 0 && groupImages[groups - 1] == image
+            && groupTransforms[groups - 1] == transform) {
+            // the last group is drawn after everything added so far
+            group = groups - 1;
+        } else {
+            // the sprite has to be drawn after every group holding a
+            // sprite it may overlap
+            int first = 0;
+            for (int y = y1; y <= y2; y++) {
+                int row = (y & (GRID_SIZE - 1)) << GRID_SHIFT;
+                for (int x = x1; x <= x2; x++) {
+                    int g = grid[row | (x & (GRID_SIZE - 1))] - 1;
+                    if (g > first) {
+                        first = g;
+                    }
+                }
+            }
+
+            group = groups;
+            for (int g = first; g < groups; g++) {
+                if (groupImages[g] == image
+                    && groupTransforms[g] == transform) {
+                    group = g;
+                    break;
+                }
+            }
+            if (group == groups) {
+                if (groups == groupImages.length) {
+                    growGroups();
+                }
+                groupImages[groups] = image;
+                groupTransforms[groups] = transform;
+                groups++;
+            }
+        }
+
+        // mark the cells covered with the group, kept as group + 1 so
+        // that zero stands for no sprite
+        for (int y = y1; y <= y2; y++) {
+            int row = (y & (GRID_SIZE - 1)) << GRID_SHIFT;
+            for (int x = x1; x <= x2; x++) {
+                int i = row | (x & (GRID_SIZE - 1));
+                if (grid[i] <= group) {
+                    grid[i] = group + 1;
+                }
+            }
+        }
+
+        sprites[count] = s;
+        groupOf[count] = group;
+        count++;
+    }
+
+    /**
+     * Draws the sprites added and empties the batch.
+     *
+     * @param g the graphics object to draw with
+     */
+    void flush(Graphics g) {
+        if (groups == count) {
+            // nothing was grouped, the sprites are drawn in order
+            for (int i = 0; i < count; i++) {
+                sprites[i].paint(g);
+            }
+        } else {
+            GraphicsAccess access = GraphicsAccess.getInstance();
+
+            // the sprites of each group, in the order they were added
+            int[] starts = groupStarts;
+            for (int i = 0; i <= groups; i++) {
+                starts[i] = 0;
+            }
+            for (int i = 0; i < count; i++) {
+                starts[groupOf[i] + 1]++;
+            }
+            for (int i = 0; i < groups; i++) {
+                starts[i + 1] += starts[i];
+            }
+            for (int i = 0; i < count; i++) {
+                order[starts[groupOf[i]]++] = i;
+            }
+
+            int k = 0;
+            for (int group = 0; group < groups; group++) {
+                Image image = groupImages[group];
+                int n = 0;
+                for (; k < count && groupOf[order[k]] == group; k++) {
+                    Sprite s = sprites[order[k]];
+                    int r = n * 6;
+                    if (image == s.sourceImage) {
+                        regions[r] = s.frameX;
+                        regions[r + 1] = s.frameY;
+                        regions[r + 2] = s.srcFrameWidth;
+                        regions[r + 3] = s.srcFrameHeight;
+                    } else {
+                        // a stored frame, already transformed
+                        regions[r] = 0;
+                        regions[r + 1] = 0;
+                        regions[r + 2] = s.width;
+                        regions[r + 3] = s.height;
+                    }
+                    regions[r + 4] = s.x;
+                    regions[r + 5] = s.y;
+                    n++;
+                }
+                access.drawRegions(g, image,
+                                   groupTransforms[group], regions, n);
+            }
+        }
+
+        clear();
+    }
+
+    /**
+     * Empties the batch without drawing.
+     */
+    void clear() {
+        for (int i = 0; i < count; i++) {
+            sprites[i] = null;
+        }
+        for (int i = 0; i < groups; i++) {
+            groupImages[i] = null;
+        }
+        if (count > 0) {
+            for (int i = grid.length; --i >= 0; ) {
+                grid[i] = 0;
+            }
+        }
+        count = 0;
+        groups = 0;
+    }
+
+    // private implementation //
+
+    /** log2 of the size of a grid cell, in pixels */
+    private static final int CELL_SHIFT = 4;
+
+    /** log2 of the number of cells across and down the grid */
+    private static final int GRID_SHIFT = 5;
+    private static final int GRID_SIZE = 1 << GRID_SHIFT;
+
+    /**
+     * The highest group plus one of the sprites covering each cell,
+     * row by row. Locations wrap around the grid, so that a cell may
+     * also stand for areas far apart; this only keeps sprites out of
+     * groups they could have joined.
+     */
+    private final int[] grid = new int[GRID_SIZE * GRID_SIZE];
+
+    /** the sprites added, back to front, and the group of each */
+    private Sprite[] sprites = new Sprite[16];
+    private int[] groupOf = new int[16];
+    private int count; // = 0;
+
+    /** the source image and transform of each group */
+    private Image[] groupImages = new Image[8];
+    private int[] groupTransforms = new int[8];
+    private int groups; // = 0;
+
+    /** scratch space for ordering the sprites by group */
+    private int[] groupStarts = new int[9];
+    private int[] order = new int[16];
+
+    /** the regions of a group, six elements per sprite */
+    private int[] regions = new int[16 * 6];
+
+    /**
+     * Doubles the room for sprites.
+     */
+    private void grow() {
+        int n = sprites.length * 2;
+        Sprite[] newSprites = new Sprite[n];
+        System.arraycopy(sprites, 0, newSprites, 0, count);
+        sprites = newSprites;
+        int[] newGroupOf = new int[n];
+        System.arraycopy(groupOf, 0, newGroupOf, 0, count);
+        groupOf = newGroupOf;
+        order = new int[n];
+        regions = new int[n * 6];
+    }
+
+    /**
+     * Doubles the room for groups.
+     */
+    private void growGroups() {
+        int n = groupImages.length * 2;
+        Image[] newImages = new Image[n];
+        System.arraycopy(groupImages, 0, newImages, 0, groups);
+        groupImages = newImages;
+        int[] newTransforms = new int[n];
+        System.arraycopy(groupTransforms, 0, newTransforms, 0, groups);
+        groupTransforms = newTransforms;
+        groupStarts = new int[n + 1];
+    }
+}
@@ -0,0 +1,721 @@
+package javax.microedition.lcdui.game;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+import com.cuby.lcdui.GraphicsAccess;
+import com.cuby.lcdui.ImageMemory;
+
+/**
+ * Pre-rendered chunks of the cells of a <code>TiledLayer</code> with an
+ * immutable tile image. The layer is divided into chunks of about
+ * <code>CHUNK_SIZE</code> pixels square, each rendered into an image of
+ * its own when first painted, so that painting the layer takes a few
+ * image blits instead of one region blit per cell. Changing cells only
+ * marks the chunks holding them for rendering again, and changing an
+ * animated tile only the chunks using it.
+ *
+ * <p>At most <code>MAX_CACHED_CHUNKS</code> chunks are kept; the store
+ * of the chunk painted least recently is reused for the next one. The
+ * cache is dropped when image memory runs over its budget.</p>
+ *
+ * <p>On top of the chunks, the part of the layer painted last, the
+ * viewport, is kept in a store of its own once two paints in a row
+ * cover an area of the same size and every chunk in it is opaque.
+ * Chunks with transparent cells are drawn one by one instead: drawing
+ * only their opaque runs is faster than blending a viewport pixel by
+ * pixel. When the layer or the view window scrolls, the viewport
+ * pixels are shifted in place and only the newly exposed strips and
+ * the changed cells are copied in from the chunks, so that painting a
+ * scrolling layer takes a single blit.</p>
+ */
+final class TileChunkCache implements ImageMemory.Cache {
+
+    /**
+     * Preferred width and height of a chunk in pixels. Chunks hold
+     * whole cells, at least one.
+     */
+    static final int CHUNK_SIZE = 128;
+
+    /**
+     * Maximum number of rendered chunks kept
+     */
+    static final int MAX_CACHED_CHUNKS = 32;
+
+    /**
+     * Creates the cache of a layer, with every chunk to be rendered.
+     *
+     * @param layer the layer whose cells are cached
+     */
+    TileChunkCache(TiledLayer layer) {
+        this.layer = layer;
+        reset();
+        ImageMemory.register(this);
+    }
+
+    /**
+     * Recomputes the chunk grid for the current cell size and drops
+     * every rendered chunk.
+     */
+    synchronized void reset() {
+        chunkColumns = CHUNK_SIZE / layer.cellWidth;
+        if (chunkColumns < 1) {
+            chunkColumns = 1;
+        }
+        chunkRows = CHUNK_SIZE / layer.cellHeight;
+        if (chunkRows < 1) {
+            chunkRows = 1;
+        }
+
+        chunksAcross = (layer.columns + chunkColumns - 1) / chunkColumns;
+        chunksDown = (layer.rows + chunkRows - 1) / chunkRows;
+        int n = chunksAcross * chunksDown;
+        images = new Image[n];
+        stores = new int[n][];
+        state = new byte[n];
+        lastPainted = new int[n];
+        cached = 0;
+
+        // the viewport may hold cells of another size
+        viewValid = false;
+
+        // index the animated cells afresh for the new grid
+        animatedUse = null;
+        // blocks of empty cells are skipped without reading them
+        CellStore cells = layer.cells;
+        int size = CellStore.BLOCK_SIZE;
+        for (int row1 = 0; row1 < layer.rows; row1 += size) {
+            for (int col1 = 0; col1 < layer.columns; col1 += size) {
+                if (cells.isBlank(col1 / size, row1 / size)) {
+                    continue;
+                }
+
+                int row2 = Math.min(row1 + size, layer.rows);
+                int col2 = Math.min(col1 + size, layer.columns);
+                for (int row = row1; row < row2; row++) {
+                    for (int col = col1; col < col2; col++) {
+                        int tileIndex = cells.get(col, row);
+                        if (tileIndex < 0) {
+                            countAnimated(tileIndex, chunkOf(col, row), 1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the chunks holding a range of cells for rendering again and
+     * updates the animated tile index. Must be called before the cells
+     * are set.
+     *
+     * @param col the first column of the range
+     * @param row the first row of the range
+     * @param numCols the number of columns in the range
+     * @param numRows the number of rows in the range
+     * @param tileIndex the tile the cells are about to be set to
+     */
+    synchronized void cellsChanging(int col, int row, int numCols,
+                                    int numRows, int tileIndex) {
+        CellStore cells = layer.cells;
+        for (int r = row; r < row + numRows; r++) {
+            for (int c = col; c < col + numCols; c++) {
+                int old = cells.get(c, r);
+                if (old == tileIndex) {
+                    continue;
+                }
+
+                int chunk = chunkOf(c, r);
+                if (old < 0) {
+                    countAnimated(old, chunk, -1);
+                }
+                if (tileIndex < 0) {
+                    countAnimated(tileIndex, chunk, 1);
+                }
+                invalidate(chunk);
+            }
+        }
+    }
+
+    /**
+     * Marks the chunks using an animated tile for rendering again.
+     *
+     * @param animatedTileIndex the animated tile, as a positive index
+     */
+    synchronized void animatedTileChanged(int animatedTileIndex) {
+        if (animatedUse == null || animatedTileIndex >= animatedUse.length) {
+            return;
+        }
+
+        int[] use = animatedUse[animatedTileIndex];
+        if (use == null) {
+            return;
+        }
+
+        for (int chunk = use.length; --chunk >= 0; ) {
+            if (use[chunk] != 0) {
+                invalidate(chunk);
+            }
+        }
+    }
+
+    /**
+     * Paints the part of the layer intersecting the clip.
+     *
+     * @param g the graphics to paint the layer with
+     */
+    synchronized void paint(Graphics g) {
+        // the area to paint, relative to the layer
+        int left = g.getClipX() - layer.x;
+        int top = g.getClipY() - layer.y;
+        int right = left + g.getClipWidth();
+        int bottom = top + g.getClipHeight();
+        if (left < 0) {
+            left = 0;
+        }
+        if (top < 0) {
+            top = 0;
+        }
+        if (right > layer.width) {
+            right = layer.width;
+        }
+        if (bottom > layer.height) {
+            bottom = layer.height;
+        }
+        if (left >= right || top >= bottom) {
+            return;
+        }
+
+        paintStamp++;
+        if (!isOpaque(left, top, right, bottom)) {
+            dropView();
+            paintChunks(g, left, top, right, bottom);
+            return;
+        }
+
+        int w = right - left;
+        int h = bottom - top;
+        if (view == null || w != viewWidth || h != viewHeight) {
+            if (w != lastWidth || h != lastHeight) {
+                // the area keeps changing size, a viewport would
+                // have to be copied in full every time
+                lastWidth = w;
+                lastHeight = h;
+                paintChunks(g, left, top, right, bottom);
+                return;
+            }
+            createView(w, h);
+        }
+
+        updateView(left, top);
+
+        GraphicsAccess.getInstance().setOpaque(viewImage, true);
+        g.drawImage(viewImage, layer.x + left, layer.y + top,
+                    Graphics.TOP | Graphics.LEFT);
+    }
+
+    /**
+     * Drops every rendered chunk and the viewport. Waits for a paint
+     * in progress to finish.
+     *
+     * @return the number of bytes of chunk stores released
+     */
+    public synchronized int evict() {
+        int released = 0;
+        for (int i = images.length; --i >= 0; ) {
+            Image image = images[i];
+            if (image != null) {
+                released += stores[i].length << 2;
+                images[i] = null;
+                stores[i] = null;
+            }
+            if (state[i] != EMPTY) {
+                state[i] = STALE;
+            }
+        }
+        cached = 0;
+
+        return released + dropView();
+    }
+
+    // private implementation //
+
+    /** never rendered, or the store was taken back */
+    private static final byte STALE = 0;
+    /** rendered and up to date */
+    private static final byte READY = 1;
+    /** rendered, but cells changed since */
+    private static final byte DIRTY = 2;
+    /** up to date, and all cells are empty */
+    private static final byte EMPTY = 3;
+
+    private final TiledLayer layer;
+
+    /** number of cells across and down a chunk */
+    private int chunkColumns, chunkRows;
+
+    /** number of chunks across and down the layer */
+    private int chunksAcross, chunksDown;
+
+    /** rendered image of each chunk, <code>null</code> if none */
+    private Image[] images;
+
+    /** store of each chunk image */
+    private int[][] stores;
+
+    /** one of <code>STALE</code>, <code>READY</code>,
+        <code>DIRTY</code> or <code>EMPTY</code> for each chunk */
+    private byte[] state;
+
+    /** paint stamp of the last paint each chunk was drawn by */
+    private int[] lastPainted;
+    private int paintStamp; // = 0;
+
+    /** number of chunks holding an image */
+    private int cached; // = 0;
+
+    /**
+     * Reverse index of the animated tiles: for each animated tile, as
+     * a positive index, the number of its cells in each chunk.
+     * <code>null</code> for animated tiles not used by any cell.
+     */
+    private int[][] animatedUse; // = null;
+
+    private int chunkOf(int col, int row) {
+        return (row / chunkRows) * chunksAcross + col / chunkColumns;
+    }
+
+    /**
+     * Marks a chunk for rendering again, and its area of the viewport
+     * for copying again.
+     */
+    private void invalidate(int chunk) {
+        if (viewValid) {
+            int chunkWidth = chunkColumns * layer.cellWidth;
+            int chunkHeight = chunkRows * layer.cellHeight;
+            int x1 = (chunk % chunksAcross) * chunkWidth;
+            int y1 = (chunk / chunksAcross) * chunkHeight;
+            addDamage(x1, y1, x1 + chunkWidth, y1 + chunkHeight);
+        }
+
+        if (state[chunk] == EMPTY) {
+            state[chunk] = STALE;
+        } else if (state[chunk] == READY) {
+            state[chunk] = DIRTY;
+        }
+    }
+
+    /**
+     * Adds to the count of cells of a chunk using an animated tile.
+     */
+    private void countAnimated(int tileIndex, int chunk, int delta) {
+        int anim = -tileIndex;
+        if (animatedUse == null || anim >= animatedUse.length) {
+            int[][] grown = new int[anim + 4][];
+            if (animatedUse != null) {
+                System.arraycopy(animatedUse, 0, grown, 0, animatedUse.length);
+            }
+            animatedUse = grown;
+        }
+        if (animatedUse[anim] == null) {
+            animatedUse[anim] = new int[state.length];
+        }
+        animatedUse[anim][chunk] += delta;
+    }
+
+    /** the viewport store and its image */
+    private int[] view; // = null;
+    private Image viewImage; // = null;
+    private int viewWidth, viewHeight; // = 0;
+
+    /** location of the viewport in the layer */
+    private int viewX, viewY; // = 0;
+
+    /** <code>false</code> until the viewport holds the layer pixels */
+    private boolean viewValid; // = false;
+
+    /** size of the area painted last */
+    private int lastWidth, lastHeight; // = 0;
+
+    /** bounds of the layer area changed since the last paint */
+    private int damageX1, damageY1, damageX2, damageY2; // = 0;
+
+    /**
+     * Paints the chunks intersecting an area of the layer.
+     */
+    private void paintChunks(Graphics g, int left, int top,
+                             int right, int bottom) {
+        int chunkWidth = chunkColumns * layer.cellWidth;
+        int chunkHeight = chunkRows * layer.cellHeight;
+        int c1 = left / chunkWidth;
+        int r1 = top / chunkHeight;
+        int c2 = (right - 1) / chunkWidth;
+        int r2 = (bottom - 1) / chunkHeight;
+
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                int chunk = r * chunksAcross + c;
+                if (!prepare(chunk)) {
+                    continue;
+                }
+
+                g.drawImage(images[chunk],
+                            layer.x + c * chunkWidth,
+                            layer.y + r * chunkHeight,
+                            Graphics.TOP | Graphics.LEFT);
+            }
+        }
+    }
+
+    /**
+     * Renders a chunk if needed and records its use.
+     *
+     * @return <code>false</code> if the chunk is empty
+     */
+    private boolean prepare(int chunk) {
+        if (state[chunk] != READY) {
+            render(chunk, chunk % chunksAcross, chunk / chunksAcross);
+            if (state[chunk] == EMPTY) {
+                return false;
+            }
+        }
+        lastPainted[chunk] = paintStamp;
+        return true;
+    }
+
+    /**
+     * Releases the viewport store.
+     *
+     * @return the number of bytes released
+     */
+    private int dropView() {
+        if (view == null) {
+            return 0;
+        }
+
+        int released = view.length << 2;
+        view = null;
+        viewImage = null;
+        viewValid = false;
+        return released;
+    }
+
+    /**
+     * Allocates the viewport store.
+     */
+    private void createView(int w, int h) {
+        view = null;
+        viewImage = null;
+        ImageMemory.getCurrent().makeRoom((w * h) << 2);
+
+        view = new int[w * h];
+        viewImage = GraphicsAccess.getInstance().createRGBImage(view, w, h,
+                                                                true);
+        viewWidth = w;
+        viewHeight = h;
+        viewValid = false;
+    }
+
+    /**
+     * Brings the viewport to a new location, reusing the pixels it
+     * shares with the previous one.
+     */
+    private void updateView(int x, int y) {
+        int w = viewWidth;
+        int h = viewHeight;
+        int dx = x - viewX;
+        int dy = y - viewY;
+
+        if (!viewValid || dx >= w || -dx >= w || dy >= h || -dy >= h) {
+            // nothing to reuse
+            copyToView(x, y, 0, 0, w, h);
+            viewX = x;
+            viewY = y;
+            viewValid = true;
+            damageX1 = damageX2 = 0;
+            return;
+        }
+
+        if (dx != 0 || dy != 0) {
+            shiftView(dx, dy);
+
+            // the strips scrolled into view
+            if (dy > 0) {
+                copyToView(x, y, 0, h - dy, w, dy);
+            } else if (dy < 0) {
+                copyToView(x, y, 0, 0, w, -dy);
+            }
+            int rowsKept = h - (dy > 0 ? dy : -dy);
+            int firstKept = dy < 0 ? -dy : 0;
+            if (dx > 0) {
+                copyToView(x, y, w - dx, firstKept, dx, rowsKept);
+            } else if (dx < 0) {
+                copyToView(x, y, 0, firstKept, -dx, rowsKept);
+            }
+            viewX = x;
+            viewY = y;
+        }
+
+        // cells changed since the last paint
+        if (damageX1 < damageX2) {
+            int x1 = damageX1 > x ? damageX1 : x;
+            int y1 = damageY1 > y ? damageY1 : y;
+            int x2 = damageX2 < x + w ? damageX2 : x + w;
+            int y2 = damageY2 < y + h ? damageY2 : y + h;
+            if (x1 < x2 && y1 < y2) {
+                copyToView(x, y, x1 - x, y1 - y, x2 - x1, y2 - y1);
+            }
+            damageX1 = damageX2 = 0;
+        }
+    }
+
+    /**
+     * Moves the viewport pixels so that the pixel at
+     * <code>(dx, dy)</code> ends up at the origin. Rows are moved in
+     * an order that never overwrites rows still to be moved.
+     */
+    private void shiftView(int dx, int dy) {
+        int w = viewWidth;
+        int h = viewHeight;
+        int n = w - (dx > 0 ? dx : -dx);
+        int srcCol = dx > 0 ? dx : 0;
+        int dstCol = dx < 0 ? -dx : 0;
+
+        if (dy >= 0) {
+            for (int row = 0; row < h - dy; row++) {
+                System.arraycopy(view, (row + dy) * w + srcCol,
+                                 view, row * w + dstCol, n);
+            }
+        } else {
+            for (int row = h - 1; row >= -dy; row--) {
+                System.arraycopy(view, (row + dy) * w + srcCol,
+                                 view, row * w + dstCol, n);
+            }
+        }
+    }
+
+    /**
+     * Copies the layer pixels of an area of the viewport in from
+     * the chunks.
+     *
+     * @param x the location of the viewport in the layer
+     * @param y the location of the viewport in the layer
+     * @param vx the area, relative to the viewport
+     * @param vy the area, relative to the viewport
+     * @param w the width of the area
+     * @param h the height of the area
+     */
+    private void copyToView(int x, int y, int vx, int vy, int w, int h) {
+        int chunkWidth = chunkColumns * layer.cellWidth;
+        int chunkHeight = chunkRows * layer.cellHeight;
+        int left = x + vx;
+        int top = y + vy;
+        int right = left + w;
+        int bottom = top + h;
+
+        for (int r = top / chunkHeight, r2 = (bottom - 1) / chunkHeight;
+             r <= r2; r++) {
+            for (int c = left / chunkWidth, c2 = (right - 1) / chunkWidth;
+                 c <= c2; c++) {
+                int chunk = r * chunksAcross + c;
+                int cx = c * chunkWidth;
+                int cy = r * chunkHeight;
+                int x1 = cx > left ? cx : left;
+                int y1 = cy > top ? cy : top;
+                int x2 = cx + chunkWidth < right ? cx + chunkWidth : right;
+                int y2 = cy + chunkHeight < bottom ? cy + chunkHeight
+                                                   : bottom;
+
+                int dst = (y1 - y) * viewWidth + (x1 - x);
+                if (!prepare(chunk)) {
+                    for (int row = y1; row < y2; row++, dst += viewWidth) {
+                        for (int i = dst, end = dst + x2 - x1;
+                             i < end; i++) {
+                            view[i] = 0;
+                        }
+                    }
+                    continue;
+                }
+
+                int[] store = stores[chunk];
+                int scan = images[chunk].getWidth();
+                int src = (y1 - cy) * scan + (x1 - cx);
+                for (int row = y1; row < y2;
+                     row++, src += scan, dst += viewWidth) {
+                    System.arraycopy(store, src, view, dst, x2 - x1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether every chunk intersecting an area is fully opaque.
+     * The chunks are rendered first if their cells changed, so that
+     * the answer holds for the cells about to be painted.
+     */
+    private boolean isOpaque(int left, int top, int right, int bottom) {
+        int chunkWidth = chunkColumns * layer.cellWidth;
+        int chunkHeight = chunkRows * layer.cellHeight;
+        GraphicsAccess access = GraphicsAccess.getInstance();
+        for (int r = top / chunkHeight, r2 = (bottom - 1) / chunkHeight;
+             r <= r2; r++) {
+            for (int c = left / chunkWidth, c2 = (right - 1) / chunkWidth;
+                 c <= c2; c++) {
+                int chunk = r * chunksAcross + c;
+                if (!prepare(chunk) || !access.isOpaque(images[chunk])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds an area of the layer to the damaged bounds.
+     */
+    private void addDamage(int x1, int y1, int x2, int y2) {
+        if (damageX1 >= damageX2) {
+            damageX1 = x1;
+            damageY1 = y1;
+            damageX2 = x2;
+            damageY2 = y2;
+            return;
+        }
+        if (x1 < damageX1) {
+            damageX1 = x1;
+        }
+        if (y1 < damageY1) {
+            damageY1 = y1;
+        }
+        if (x2 > damageX2) {
+            damageX2 = x2;
+        }
+        if (y2 > damageY2) {
+            damageY2 = y2;
+        }
+    }
+
+    /**
+     * Renders a chunk into its image, reusing a store when one of the
+     * right size is available.
+     */
+    private void render(int chunk, int c, int r) {
+        int col1 = c * chunkColumns;
+        int row1 = r * chunkRows;
+        int cols = layer.columns - col1 < chunkColumns
+            ? layer.columns - col1 : chunkColumns;
+        int rows = layer.rows - row1 < chunkRows
+            ? layer.rows - row1 : chunkRows;
+
+        if (isEmpty(col1, row1, cols, rows)) {
+            if (images[chunk] != null) {
+                images[chunk] = null;
+                stores[chunk] = null;
+                cached--;
+            }
+            state[chunk] = EMPTY;
+            return;
+        }
+
+        int cw = layer.cellWidth;
+        int ch = layer.cellHeight;
+        int w = cols * cw;
+        int h = rows * ch;
+
+        if (images[chunk] == null) {
+            takeStore(chunk, w, h);
+        }
+
+        int[] pixels = stores[chunk];
+        if (pixels == null) {
+            ImageMemory.getCurrent().makeRoom((w * h) << 2);
+            pixels = new int[w * h];
+        } else {
+            for (int i = w * h; --i >= 0; ) {
+                pixels[i] = 0;
+            }
+        }
+
+        // cells do not overlap, so copying the tiles alpha included
+        // gives the same result as drawing them one by one
+        Image source = layer.sourceImage;
+        CellStore cells = layer.cells;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int tileIndex = cells.get(col1 + col, row1 + row);
+                if (tileIndex < 0) {
+                    tileIndex = layer.anim_to_static[-tileIndex];
+                }
+                if (tileIndex == 0) { // transparent tile
+                    continue;
+                }
+
+                source.getRGB(pixels, row * ch * w + col * cw, w,
+                              layer.tileSetX[tileIndex],
+                              layer.tileSetY[tileIndex], cw, ch);
+            }
+        }
+
+        GraphicsAccess access = GraphicsAccess.getInstance();
+        if (stores[chunk] == null) {
+            images[chunk] = access.createRGBImage(pixels, w, h, true);
+            stores[chunk] = pixels;
+            cached++;
+        } else {
+            access.pixelsChanged(images[chunk]);
+        }
+        state[chunk] = READY;
+    }
+
+    /**
+     * Tells whether all cells of a range are empty.
+     */
+    private boolean isEmpty(int col, int row, int cols, int rows) {
+        CellStore cells = layer.cells;
+        for (int r = row; r < row + rows; r++) {
+            for (int c = col; c < col + cols; c++) {
+                int tileIndex = cells.get(c, r);
+                if (tileIndex < 0) {
+                    tileIndex = layer.anim_to_static[-tileIndex];
+                }
+                if (tileIndex != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands the image and store of the chunk painted least recently
+     * over to another chunk of the same size if the cache is full.
+     * Otherwise the chunk is left without a store, to have a new
+     * one created.
+     */
+    private void takeStore(int chunk, int w, int h) {
+        if (cached < MAX_CACHED_CHUNKS) {
+            return;
+        }
+
+        int victim = -1;
+        for (int i = 0; i < images.length; i++) {
+            if (images[i] != null
+                && (victim < 0 || lastPainted[i] < lastPainted[victim])) {
+                victim = i;
+            }
+        }
+
+        Image image = images[victim];
+        int[] store = stores[victim];
+        images[victim] = null;
+        stores[victim] = null;
+        state[victim] = STALE;
+
+        if (image.getWidth() == w && image.getHeight() == h) {
+            images[chunk] = image;
+            stores[chunk] = store;
+        } else {
+            cached--;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 
 package javax.microedition.lcdui.game;
 
+import java.nio.ByteBuffer;
+
 import javax.microedition.lcdui.Image;
 import javax.microedition.lcdui.Graphics;
 
+import com.cuby.lcdui.GameAccess;
+
 /**
  * A TiledLayer is a visual element composed of a grid of cells that
  * can be filled with a set of
@@ -121,6 +125,10 @@ import javax.microedition.lcdui.Graphics;
  */
 public class TiledLayer extends Layer {
 
+    static {
+        GameAccess.register(new GameAccessImpl());
+    }
+
     /**
      * Creates a new TiledLayer.  <p>
      *
@@ -176,15 +184,15 @@ public class TiledLayer extends Layer {
         this.columns = columns;
 	this.rows = rows;
 
-        cellMatrix = new int[rows][columns];
+        cells = new CellStore(columns, rows);
 
         int noOfFrames = 
             (image.getWidth() / tileWidth) * (image.getHeight() / tileHeight);
         // the zero th index is left empty for transparent tile
         // so it is passed in  createStaticSet as noOfFrames + 1
         // Also maintain static indices is true
-	// all elements of cellMatrix[][] 
-	// are set to zero by new, so maintainIndices = true
+	// all cells of a new CellStore are empty,
+	// so maintainIndices = true
         createStaticSet(image,  noOfFrames + 1, tileWidth, tileHeight, true);
     }
 
@@ -248,7 +256,12 @@ public class TiledLayer extends Layer {
 	    throw new IndexOutOfBoundsException();
         }
 
-        anim_to_static[animatedTileIndex] = staticTileIndex;
+        if (anim_to_static[animatedTileIndex] != staticTileIndex) {
+            anim_to_static[animatedTileIndex] = staticTileIndex;
+            if (chunkCache != null) {
+                chunkCache.animatedTileChanged(animatedTileIndex);
+            }
+        }
 
     }
 
@@ -309,7 +322,10 @@ public class TiledLayer extends Layer {
             }
 	}
 
-        cellMatrix[row][col] = tileIndex;
+        if (chunkCache != null) {
+            chunkCache.cellsChanging(col, row, 1, 1, tileIndex);
+        }
+        cells.set(col, row, tileIndex);
  
     }
 
@@ -332,7 +348,7 @@ public class TiledLayer extends Layer {
         if (col < 0 || col >= this.columns || row < 0 || row >= this.rows) {
             throw new IndexOutOfBoundsException();
         }
-        return cellMatrix[row][col];
+        return cells.get(col, row);
     }
 
     /**
@@ -384,11 +400,24 @@ public class TiledLayer extends Layer {
             }
 	}
 
-        for (int rowCount = row; rowCount < row + numRows; rowCount++) {
-            for (int columnCount = col; 
-                     columnCount < col + numCols; columnCount++) {
-                cellMatrix[rowCount][columnCount] = tileIndex;
-            }
+        if (chunkCache != null) {
+            chunkCache.cellsChanging(col, row, numCols, numRows, tileIndex);
+        }
+        cells.fill(col, row, numCols, numRows, tileIndex);
+    }
+
+    /**
+     * Takes the contents of all cells from a buffer. Called through
+     * <code>com.cuby.lcdui.TileMaps</code>, which documents it.
+     *
+     * @param cells the buffer holding the cells
+     * @param cellSize the size of a cell in the buffer, in bytes
+     */
+    void mapCells(ByteBuffer cells, int cellSize) {
+        int animated = anim_to_static == null ? 0 : numOfAnimTiles - 1;
+        this.cells.map(cells, cellSize, -animated, numberOfTiles - 1);
+        if (chunkCache != null) {
+            chunkCache.reset();
         }
     }
 
@@ -512,6 +541,16 @@ public class TiledLayer extends Layer {
         }
 
         if (visible) {
+            if (!sourceImage.isMutable()) {
+                // immutable tiles never change, so whole chunks of
+                // cells can be rendered once and reused
+                if (chunkCache == null) {
+                    chunkCache = new TileChunkCache(this);
+                }
+                chunkCache.paint(g);
+                return;
+            }
+
 	    int startColumn = 0;
 	    int endColumn = this.columns;
 	    int startRow = 0;
@@ -559,15 +598,16 @@ public class TiledLayer extends Layer {
                 for (int column = startColumn; column < endColumn; 
 		    column++, tx += cellWidth) {
 		
-                    tileIndex = cellMatrix[row][column];
+                    tileIndex = cells.get(column, row);
 	            // check the indices 
 		    // if animated get the corresponding 
 		    // static index from anim_to_static table
-		    if (tileIndex == 0) { // transparent tile
-			continue;
-                    } else if (tileIndex < 0) {
+		    if (tileIndex < 0) {
                         tileIndex = getAnimatedTile(tileIndex);
 		    }
+		    if (tileIndex == 0) { // transparent tile
+			continue;
+                    }
 
 		    g.drawRegion(sourceImage, 
 				 tileSetX[tileIndex], 
@@ -582,8 +622,150 @@ public class TiledLayer extends Layer {
 	}
     }
 
+    /**
+     * Tests whether a non-empty cell lies within an area, given in the
+     * painter's coordinate system. For pixel level tests the opaque
+     * pixels of the cells are tested against a mask covering the area.
+     *
+     * @param left the left edge of the area
+     * @param top the top edge of the area
+     * @param right the right edge of the area, exclusive
+     * @param bottom the bottom edge of the area, exclusive
+     * @param pixelLevel <code>true</code> to test the pixels of the cells
+     * @param mask the mask to test the cells against, <code>null</code>
+     * if every pixel of the area is opaque
+     * @param maskWords the row length of <code>mask</code>
+     * @param maskX the horizontal location of the mask
+     * @param maskY the vertical location of the mask
+     * @return <code>true</code> if a cell collides with the area
+     */
+    boolean collidesWithCells(int left, int top, int right, int bottom,
+                              boolean pixelLevel, long[] mask,
+                              int maskWords, int maskX, int maskY) {
+        // only the cells under the area are visited
+        if (left < this.x) {
+            left = this.x;
+        }
+        if (top < this.y) {
+            top = this.y;
+        }
+        if (right > this.x + this.width) {
+            right = this.x + this.width;
+        }
+        if (bottom > this.y + this.height) {
+            bottom = this.y + this.height;
+        }
+        if (left >= right || top >= bottom) {
+            return false;
+        }
+
+        int startColumn = (left - this.x) / cellWidth;
+        int endColumn = (right - 1 - this.x) / cellWidth;
+        int startRow = (top - this.y) / cellHeight;
+        int endRow = (bottom - 1 - this.y) / cellHeight;
+
+        boolean opaqueTiles = CollisionMask.isOpaque(sourceImage);
+        int tileWords = CollisionMask.words(cellWidth);
+
+        int ty = this.y + (startRow * cellHeight);
+        for (int row = startRow; row <= endRow; row++, ty += cellHeight) {
+            int tx = this.x + (startColumn * cellWidth);
+            for (int column = startColumn; column <= endColumn; 
+                 column++, tx += cellWidth) {
+                int tileIndex = cells.get(column, row);
+                if (tileIndex < 0) {
+                    tileIndex = anim_to_static[-tileIndex];
+                }
+                if (tileIndex == 0) { // transparent tile
+                    continue;
+                }
+
+                if (!pixelLevel) {
+                    return true;
+                }
+
+                int x1 = tx > left ? tx : left;
+                int y1 = ty > top ? ty : top;
+                int x2 = tx + cellWidth < right ? tx + cellWidth : right;
+                int y2 = ty + cellHeight < bottom ? ty + cellHeight : bottom;
+
+                long[] tileMask = opaqueTiles ? null : getTileMask(tileIndex);
+                if (CollisionMask.overlaps(mask, maskWords,
+                                           x1 - maskX, y1 - maskY,
+                                           tileMask, tileWords,
+                                           x1 - tx, y1 - ty,
+                                           x2 - x1, y2 - y1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether painting this layer covers every pixel of an area,
+     * given in the painter's coordinate system: the area lies within
+     * the layer, the tiles are fully opaque and no cell under the area
+     * is empty.
+     *
+     * @param left the left edge of the area
+     * @param top the top edge of the area
+     * @param right the right edge of the area, exclusive
+     * @param bottom the bottom edge of the area, exclusive
+     * @return <code>true</code> if the layer hides whatever lies
+     * beneath the area
+     */
+    boolean isOpaqueOver(int left, int top, int right, int bottom) {
+        if (left < this.x || top < this.y
+            || right > this.x + this.width || bottom > this.y + this.height
+            || !CollisionMask.isOpaque(sourceImage)) {
+            return false;
+        }
+
+        int startColumn = (left - this.x) / cellWidth;
+        int endColumn = (right - 1 - this.x) / cellWidth;
+        int startRow = (top - this.y) / cellHeight;
+        int endRow = (bottom - 1 - this.y) / cellHeight;
+
+        for (int row = startRow; row <= endRow; row++) {
+            for (int column = startColumn; column <= endColumn; column++) {
+                int tileIndex = cells.get(column, row);
+                if (tileIndex < 0) {
+                    tileIndex = anim_to_static[-tileIndex];
+                }
+                if (tileIndex == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     // private implementation
 
+    /**
+     * Returns the collision mask of a static tile, built on first use.
+     *
+     * @param tileIndex the static tile
+     * @return the mask of the tile
+     */
+    private long[] getTileMask(int tileIndex) {
+        if (tileMasks == null) {
+            tileMasks = new long[numberOfTiles][];
+        }
+
+        long[] mask = tileMasks[tileIndex];
+        if (mask == null) {
+            mask = CollisionMask.build(sourceImage, 
+                                       tileSetX[tileIndex], 
+                                       tileSetY[tileIndex],
+                                       cellWidth, cellHeight, 
+                                       Sprite.TRANS_NONE);
+            tileMasks[tileIndex] = mask;
+        }
+        return mask;
+    }
+
     /**
      * create the Image Array.
      *
@@ -608,15 +790,13 @@ public class TiledLayer extends Layer {
 	numberOfTiles = noOfFrames;
 	tileSetX = new int[numberOfTiles];
 	tileSetY = new int[numberOfTiles];
+
+        // masks of the previous tiles no longer apply
+        tileMasks = null;
 	
 	if (!maintainIndices) {
-            // populate cell matrix, all the indices are 0 to begin with
-            for (rows = 0; rows < cellMatrix.length; rows++) {
-                int totalCols = cellMatrix[rows].length;
-                for (columns = 0; columns < totalCols; columns++) {
-                    cellMatrix[rows][columns] = 0;
-                }
-            }
+            // populate cells, all the indices are 0 to begin with
+            cells.clear();
 	    // delete animated tiles
 	    anim_to_static = null;
 	} 
@@ -632,33 +812,43 @@ public class TiledLayer extends Layer {
                 currentTile++;
             }
         }
+
+        // chunks of the previous tiles no longer apply
+        if (chunkCache != null) {
+            chunkCache.reset();
+        }
     }
 
     /** 
      * the overall height of the TiledLayer grid
      */
-    private int cellHeight; // = 0;
+    int cellHeight; // = 0;
     /** 
      * the overall cell width of the TiledLayer grid
      */
-    private int cellWidth; // = 0;
+    int cellWidth; // = 0;
 
     /** 
      * The num of rows of the TiledLayer grid.
      */
-    private int rows; // = 0;
+    int rows; // = 0;
 
     /** 
      * the num of columns in the TiledLayer grid
      */
-    private int columns; // = 0;
+    int columns; // = 0;
 
     /** 
-     * int array for storing row and column of cell
-     *
-     * it contains the tile Index for both static and animated tiles
+     * the cells, holding the tile Index for both static
+     * and animated tiles
      */
-    private int[][] cellMatrix; // = null;
+    CellStore cells; // = null;
+
+    /**
+     * Pre-rendered chunks of cells, created on first paint
+     * with an immutable tile image
+     */
+    private TileChunkCache chunkCache; // = null;
 
     /**
      * Source image for tiles
@@ -685,6 +875,11 @@ public class TiledLayer extends Layer {
     // package access as it is used by Pixel level Collision
     // detection with a Sprite
     int[] tileSetY;
+
+    /**
+     * Collision masks of the static tiles, built on first use
+     */
+    private long[][] tileMasks; // = null;
     
     /** 
      * Table to map from animated Index to static Index
@@ -697,7 +892,7 @@ public class TiledLayer extends Layer {
      * -index make index +ve and access this Table.
      *  
      */
-    private int[] anim_to_static; // = null;
+    int[] anim_to_static; // = null;
 
     /** 
      * total number of animated tiles. This variable is also used as 
@@ -1,6 +1,11 @@
 
 package javax.microedition.midlet;
 
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
 import javax.microedition.lcdui.*;
 /**
  * A <code>MIDlet</code> is a MID Profile application.
@@ -199,7 +204,11 @@ public abstract class MIDlet {
      * if key is <code>null</code>.
      */
     public final String getAppProperty(String key) {
-	return null;
+        if (key == null) {
+            throw new NullPointerException();
+        }
+
+	return getJarProperty(key);
     }
 
     /**
@@ -324,6 +333,40 @@ public abstract class MIDlet {
     	status = stat;
     }
     
+    /**
+     * Looks up an attribute in the main section of the manifest the
+     * MIDlet was packaged with. There is no application descriptor
+     * when the MIDlet is linked into the same package as cuby, so the
+     * manifest is the only source of application properties.
+     *
+     * @param key the name of the attribute
+     * @return the value of the attribute or <code>null</code>
+     */
+    static synchronized String getJarProperty(String key) {
+        if (manifest == null) {
+            manifest = new Attributes();
+            InputStream in = 
+                MIDlet.class.getResourceAsStream("/META-INF/MANIFEST.MF");
+            if (in != null) {
+                try {
+                    manifest = new Manifest(in).getMainAttributes();
+                } catch (IOException e) {
+                    // no properties available
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        }
+
+        return manifest.getValue(key);
+    }
+
+    /** main attributes of the manifest, loaded on first use */
+    private static Attributes manifest; // = null;
+
     private int status = LOADED; //TODO cuby and midlet app linked together. 
     
     static final int LOADED = 0;
@@ -4,6 +4,16 @@ import java.io.PrintStream;
 
 import android.app.Activity;
 import android.os.Bundle;
+import android.view.KeyEvent;
+
+import javax.microedition.lcdui.Canvas;
+import javax.microedition.lcdui.Display;
+
+import com.cuby.lcdui.DisplayAccess;
+import com.cuby.lcdui.DisplayView;
+import com.cuby.lcdui.ImageMemory;
+import com.cuby.lcdui.ImagePreloader;
+import com.cuby.lcdui.InputReplayer;
 
 //TODO class MIDletContainer should not be public
 //while MIDP spec does not allow public classes in javax.microedition.midlet package 
@@ -12,7 +22,9 @@ public class MIDletContainer extends Activity {
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.main); //TODO remove this line
+        //frames flushed or painted by the midlet are shown by the view,
+        //touches on the view reach the midlet as pointer events
+        setContentView(new DisplayView(this));
         
         System.setErr(new PrintStream(new com.cuby.util.LogOutputStream(
 				"System.err")));
@@ -34,13 +46,18 @@ public class MIDletContainer extends Activity {
         //midlet developer compile their midlet source code together with cuby source code
         //no midlet loader is needed.
         
+        // start decoding the images named for preloading before the
+        // MIDlet constructor gets a chance to ask for them
+        ImagePreloader.start(
+                MIDlet.getJarProperty(ImagePreloader.PRELOAD_PROPERTY));
+
+        //the midlet constructor may already ask for the display size
+        container = this;
+
         //construct midlet, with option 2:
         midlet = new com.cuby.sample.HelloCubyMIDlet();
         midlet.setStatus(MIDlet.LOADED);
 
-
-		container = this;
-
         
     }
     
@@ -73,11 +90,14 @@ public class MIDletContainer extends Activity {
     	//pauseApp is mapped to onPause
     	midlet.pauseApp();
     	midlet.setStatus(MIDlet.PAUSED);
+    	//derived image caches are rebuilt on demand once resumed
+    	ImageMemory.evictCaches();
     }
 
     @Override
     protected void onStop(){
     	super.onStop();
+    	ImageMemory.evictCaches();
     }
 
     @Override
@@ -96,6 +116,34 @@ public class MIDletContainer extends Activity {
 		midlet.setStatus(MIDlet.DESTROYED);
     }    
     
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event){
+    	int midpKeyCode = toMIDPKeyCode(keyCode);
+    	if (midpKeyCode == 0) {
+    		return super.onKeyDown(keyCode, event);
+    	}
+    	//Canvas does not ask for repeat events
+    	//a replay has the input to itself
+    	if (event.getRepeatCount() == 0 && InputReplayer.getActive() == null) {
+    		DisplayAccess.getInstance().keyEvent(Display.getDisplay(midlet),
+    				DisplayAccess.KEY_PRESSED, midpKeyCode);
+    	}
+    	return true;
+    }
+
+    @Override
+    public boolean onKeyUp(int keyCode, KeyEvent event){
+    	int midpKeyCode = toMIDPKeyCode(keyCode);
+    	if (midpKeyCode == 0) {
+    		return super.onKeyUp(keyCode, event);
+    	}
+    	if (InputReplayer.getActive() == null) {
+    		DisplayAccess.getInstance().keyEvent(Display.getDisplay(midlet),
+    				DisplayAccess.KEY_RELEASED, midpKeyCode);
+    	}
+    	return true;
+    }
+
     public static MIDletContainer getMIDletContainerInstance(){
     	return container;
     }
@@ -104,6 +152,36 @@ public class MIDletContainer extends Activity {
     	return midlet;
     }
     
+    /**
+     * Maps an Android key code to the MIDP key code of the same key.
+     * The D-pad maps to the codes Canvas gives to its game actions.
+     * 
+     * @return the MIDP key code, or 0 for keys MIDlets do not get
+     */
+    private static int toMIDPKeyCode(int keyCode){
+    	if (keyCode >= KeyEvent.KEYCODE_0 && keyCode <= KeyEvent.KEYCODE_9) {
+    		return Canvas.KEY_NUM0 + keyCode - KeyEvent.KEYCODE_0;
+    	}
+    	switch (keyCode) {
+    	case KeyEvent.KEYCODE_STAR:
+    		return Canvas.KEY_STAR;
+    	case KeyEvent.KEYCODE_POUND:
+    		return Canvas.KEY_POUND;
+    	case KeyEvent.KEYCODE_DPAD_UP:
+    		return -1;
+    	case KeyEvent.KEYCODE_DPAD_DOWN:
+    		return -2;
+    	case KeyEvent.KEYCODE_DPAD_LEFT:
+    		return -3;
+    	case KeyEvent.KEYCODE_DPAD_RIGHT:
+    		return -4;
+    	case KeyEvent.KEYCODE_DPAD_CENTER:
+    		return -5;
+    	default:
+    		return 0;
+    	}
+    }
+
     /**
     * the midlet in user space
     * current design is: 1 activity is mapping to 1 midlet  